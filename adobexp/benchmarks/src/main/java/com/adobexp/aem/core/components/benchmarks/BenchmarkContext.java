@@ -0,0 +1,111 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.jetbrains.annotations.NotNull;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
+import com.day.cq.dam.api.Rendition;
+import com.day.cq.dam.api.handler.AssetHandler;
+import com.day.cq.dam.api.handler.store.AssetStore;
+
+import io.wcm.testing.mock.aem.context.AemContextImpl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * An AEM mock context that can be set up and torn down outside of a test framework, from the {@code @Setup} and {@code @TearDown}
+ * methods of a benchmark.
+ */
+public final class BenchmarkContext extends AemContextImpl {
+
+    /**
+     * The widths of the renditions generated for each asset, besides the original, like the default DAM update asset workflow does.
+     */
+    private static final int[] RENDITION_WIDTHS = {48, 140, 319, 1280};
+
+    public BenchmarkContext() {
+        setResourceResolverType(ResourceResolverType.RESOURCERESOLVER_MOCK);
+    }
+
+    public void start() {
+        setUp();
+    }
+
+    public void stop() {
+        tearDown();
+    }
+
+    /**
+     * Creates an asset and its thumbnail and web renditions.
+     *
+     * @param path   the path of the asset
+     * @param image  the kind of image
+     * @param width  the width of the original, in pixels
+     * @param height the height of the original, in pixels
+     * @return the asset
+     * @throws IOException if the images cannot be encoded
+     */
+    @NotNull
+    public Asset createAsset(@NotNull String path, @NotNull BenchmarkImage image, int width, int height) throws IOException {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(DamConstants.TIFF_IMAGEWIDTH, width);
+        metadata.put(DamConstants.TIFF_IMAGELENGTH, height);
+        Asset asset = create().asset(path, new ByteArrayInputStream(image.encode(width, height)), image.getMimeType(), metadata);
+        for (int renditionWidth : RENDITION_WIDTHS) {
+            if (renditionWidth >= width) {
+                break;
+            }
+            int renditionHeight = Math.max(1, (int) ((long) height * renditionWidth / width));
+            String name = (renditionWidth < 1280 ? "cq5dam.thumbnail." : "cq5dam.web.") + renditionWidth + "." + renditionWidth + "."
+                    + image.getExtension();
+            create().assetRendition(asset, name, new ByteArrayInputStream(image.encode(renditionWidth, renditionHeight)),
+                    image.getMimeType());
+        }
+        return asset;
+    }
+
+    /**
+     * Returns an asset store whose handlers decode renditions with ImageIO, as the DAM handlers of an AEM instance would.
+     *
+     * @return the asset store
+     */
+    @NotNull
+    public static AssetStore createAssetStore() {
+        AssetHandler assetHandler = mock(AssetHandler.class);
+        try {
+            when(assetHandler.getImage(any(Rendition.class)))
+                    .thenAnswer(invocation -> ImageIO.read(invocation.<Rendition>getArgument(0).getStream()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        AssetStore assetStore = mock(AssetStore.class);
+        when(assetStore.getAssetHandler(anyString())).thenReturn(assetHandler);
+        return assetStore;
+    }
+}
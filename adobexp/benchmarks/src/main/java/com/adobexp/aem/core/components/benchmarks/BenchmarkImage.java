@@ -0,0 +1,96 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.benchmarks;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The kinds of images the benchmarks are run against.
+ */
+public enum BenchmarkImage {
+
+    JPEG("image/jpeg", "jpeg", false),
+    PNG("image/png", "png", false),
+    TRANSPARENT_PNG("image/png", "png", true);
+
+    private final String mimeType;
+    private final String extension;
+    private final boolean transparent;
+
+    BenchmarkImage(String mimeType, String extension, boolean transparent) {
+        this.mimeType = mimeType;
+        this.extension = extension;
+        this.transparent = transparent;
+    }
+
+    @NotNull
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @NotNull
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Encodes an image of the given size. The image is made of gradients and noise, so that it compresses like a photo rather than
+     * like a flat color; the same size always produces the same bytes.
+     *
+     * @param width  the width of the image, in pixels
+     * @param height the height of the image, in pixels
+     * @return the encoded image
+     * @throws IOException if the image cannot be encoded
+     */
+    public byte @NotNull [] encode(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, transparent ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, new Color(0x1f, 0x6f, 0xb2, transparent ? 0x20 : 0xff), width, height,
+                    new Color(0xf2, 0xa1, 0x3c, 0xff)));
+            graphics.fillRect(0, 0, width, height);
+            Random random = new Random(width * 31L + height);
+            for (int i = 0; i < 64; i++) {
+                graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                        transparent ? random.nextInt(256) : 0xff));
+                graphics.fillOval(random.nextInt(width), random.nextInt(height), width / 8 + 1, height / 8 + 1);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        for (int y = 0; y < height; y += 2) {
+            for (int x = 0; x < width; x += 2) {
+                int rgb = image.getRGB(x, y);
+                image.setRGB(x, y, rgb ^ ((x * y) & 0x0f0f0f));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, extension, out)) {
+            throw new IOException("No ImageIO writer for " + mimeType);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.models.factory.ModelFactory;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adobexp.aem.core.components.benchmarks.BenchmarkContext;
+import com.adobexp.aem.core.components.internal.models.ExperienceFragmentImpl;
+import com.adobexp.aem.core.components.models.ExperienceFragment;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmarks the collection of the resource types of a synthetic page of about 5000 components, some of them embedding experience
+ * fragments, against the previous recursive implementation that tried to adapt every component to an experience fragment. Each
+ * invocation uses a new request, so that the models memoized per request don't carry over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilsBenchmark {
+
+    private static final String ROOT_PATH = "/content/benchmarks/page/jcr:content/root";
+    private static final String FRAGMENTS_PATH = "/content/experience-fragments/benchmarks";
+    private static final String FRAGMENT_PATH_PROPERTY = "fragmentVariationPath";
+    private static final int CONTAINERS = 50;
+    private static final int COMPONENTS_PER_CONTAINER = 100;
+    private static final int RESOURCE_TYPES = 20;
+    private static final int FRAGMENTS = 2;
+    private static final int COMPONENTS_PER_FRAGMENT = 20;
+
+    /**
+     * How many containers there are for each one embedding an experience fragment.
+     */
+    @Param({"5", "50"})
+    private int fragmentEvery;
+
+    private BenchmarkContext context;
+    private ModelFactory modelFactory;
+    private Resource root;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new BenchmarkContext();
+        context.start();
+        for (int i = 0; i < FRAGMENTS; i++) {
+            String variationPath = FRAGMENTS_PATH + "/fragment-" + i + "/master/jcr:content";
+            context.create().resource(variationPath, "sling:resourceType", "benchmarks/components/xfpage");
+            for (int j = 0; j < COMPONENTS_PER_FRAGMENT; j++) {
+                context.create().resource(variationPath + "/component-" + j,
+                        "sling:resourceType", "benchmarks/components/fragment-component-" + (j % RESOURCE_TYPES));
+            }
+        }
+        root = context.create().resource(ROOT_PATH, "sling:resourceType", "benchmarks/components/container");
+        for (int i = 0; i < CONTAINERS; i++) {
+            String containerPath = ROOT_PATH + "/container-" + i;
+            context.create().resource(containerPath, "sling:resourceType", "benchmarks/components/container");
+            for (int j = 0; j < COMPONENTS_PER_CONTAINER; j++) {
+                context.create().resource(containerPath + "/component-" + j,
+                        "sling:resourceType", "benchmarks/components/component-" + (j % RESOURCE_TYPES));
+            }
+            if (i % fragmentEvery == 0) {
+                context.create().resource(containerPath + "/experiencefragment",
+                        "sling:resourceType", ExperienceFragmentImpl.RESOURCE_TYPE_V2,
+                        FRAGMENT_PATH_PROPERTY, FRAGMENTS_PATH + "/fragment-" + (i % FRAGMENTS) + "/master/jcr:content");
+            }
+        }
+
+        // adapts the experience fragment components only, like the model factory does
+        modelFactory = mock(ModelFactory.class);
+        when(modelFactory.getModelFromWrappedRequest(any(SlingHttpServletRequest.class), any(Resource.class), eq(ExperienceFragment.class)))
+                .thenAnswer(invocation -> {
+                    Resource resource = invocation.getArgument(1);
+                    if (!ExperienceFragmentImpl.RESOURCE_TYPE_V2.equals(resource.getResourceType())) {
+                        return null;
+                    }
+                    ExperienceFragment experienceFragment = mock(ExperienceFragment.class);
+                    when(experienceFragment.getLocalizedFragmentVariationPath())
+                            .thenReturn(resource.getValueMap().get(FRAGMENT_PATH_PROPERTY, String.class));
+                    return experienceFragment;
+                });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Benchmark
+    public Set<String> getResourceTypes() {
+        return Utils.getResourceTypes(root, newRequest(), modelFactory);
+    }
+
+    @Benchmark
+    public Set<String> getResourceTypesRecursively() {
+        return getResourceTypesRecursively(root, newRequest(), modelFactory);
+    }
+
+    private SlingHttpServletRequest newRequest() {
+        return new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+    }
+
+    /**
+     * The previous implementation of {@link Utils#getResourceTypes(Resource, SlingHttpServletRequest, ModelFactory)}.
+     */
+    private static Set<String> getResourceTypesRecursively(Resource resource, SlingHttpServletRequest request, ModelFactory modelFactory) {
+        Set<String> resourceTypes = new HashSet<>();
+        resourceTypes.add(resource.getResourceType());
+        ExperienceFragment experienceFragment = modelFactory.getModelFromWrappedRequest(request, resource, ExperienceFragment.class);
+        if (experienceFragment != null) {
+            String fragmentPath = experienceFragment.getLocalizedFragmentVariationPath();
+            if (StringUtils.isNotEmpty(fragmentPath)) {
+                Resource fragmentResource = resource.getResourceResolver().getResource(fragmentPath);
+                if (fragmentResource != null) {
+                    resourceTypes.addAll(getResourceTypesRecursively(fragmentResource, request, modelFactory));
+                }
+            }
+        }
+        for (Resource child : resource.getChildren()) {
+            resourceTypes.addAll(getResourceTypesRecursively(child, request, modelFactory));
+        }
+        return resourceTypes;
+    }
+}
@@ -0,0 +1,122 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.helper.image;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adobe.cq.wcm.spi.AssetDelivery;
+import com.adobexp.aem.core.components.benchmarks.BenchmarkContext;
+import com.adobexp.aem.core.components.benchmarks.BenchmarkImage;
+import com.adobexp.aem.core.components.internal.resource.AssetResolutionCache;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmarks the rendering of the {@code srcset} of images delivered by the asset delivery, for cropped images of several sizes. The
+ * sample time mode reports the latency percentiles (p99 included); run with {@code -prof gc} to report the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssetDeliveryHelperBenchmark {
+
+    private static final String ASSET_PATH = "/content/dam/benchmarks/image";
+    private static final String IMAGE_PATH = "/content/benchmarks/jcr:content/root/image";
+    private static final int[] WIDTHS = {320, 480, 600, 800, 1024, 1280, 1600, 1920};
+
+    @Param({"JPEG", "PNG", "TRANSPARENT_PNG"})
+    private BenchmarkImage image;
+
+    @Param({"1024", "2560", "4096"})
+    private int width;
+
+    private BenchmarkContext context;
+    private AssetDelivery assetDelivery;
+    private Resource imageResource;
+    private UriTemplate srcTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new BenchmarkContext();
+        context.start();
+        String assetPath = ASSET_PATH + "." + image.getExtension();
+        int height = width * 3 / 4;
+        context.createAsset(assetPath, image, width, height);
+        imageResource = context.create().resource(IMAGE_PATH,
+                "sling:resourceType", "core/wcm/components/image/v3/image",
+                "fileReference", assetPath,
+                "imageCrop", (width / 10) + "," + (height / 10) + "," + (width / 2) + "," + (height / 2),
+                "imageRotate", "90");
+
+        // renders the parameters like the delivery does, in a stable order
+        assetDelivery = mock(AssetDelivery.class);
+        when(assetDelivery.getDeliveryURL(any(Resource.class), anyMap())).thenAnswer(invocation -> {
+            Map<String, Object> parameters = new TreeMap<>(invocation.getArgument(1));
+            StringBuilder url = new StringBuilder("/adobe/dynamicmedia/deliver/dm-aid--benchmark/")
+                    .append(parameters.remove("seoname")).append('.').append(parameters.remove("format"));
+            parameters.remove("path");
+            char separator = '?';
+            for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                url.append(separator).append(parameter.getKey()).append('=').append(parameter.getValue());
+                separator = '&';
+            }
+            return url.toString();
+        });
+        srcTemplate = AssetDeliveryHelper.getSrcTemplate(assetDelivery, AssetResolutionCache.create(context.resourceResolver()),
+                imageResource, "image", "jpg", 82);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Benchmark
+    public String getSrcSet() {
+        // a new cache per invocation, like a new request
+        return AssetDeliveryHelper.getSrcSet(assetDelivery, AssetResolutionCache.create(context.resourceResolver()), imageResource,
+                "image", "jpg", WIDTHS, 82);
+    }
+
+    @Benchmark
+    public String getSrcSetFromTemplate() {
+        return AssetDeliveryHelper.getSrcSet(srcTemplate, WIDTHS);
+    }
+}
@@ -0,0 +1,120 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.mime.MimeTypeService;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adobexp.aem.core.components.benchmarks.BenchmarkContext;
+import com.adobexp.aem.core.components.benchmarks.BenchmarkImage;
+import com.adobexp.aem.core.components.internal.helper.image.ImageTransform;
+import com.day.cq.dam.api.Asset;
+import com.day.image.Layer;
+
+/**
+ * Benchmarks the rendering of assets by the {@link AdaptiveImageServlet}, for originals of several sizes and types. The sample time
+ * mode reports the latency percentiles (p99 included); run with {@code -prof gc} to report the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AdaptiveImageServletBenchmark {
+
+    private static final String ASSET_PATH = "/content/dam/benchmarks/image";
+    private static final int RESIZE_WIDTH = 640;
+    private static final double QUALITY = AdaptiveImageServlet.DEFAULT_JPEG_QUALITY / 100.0d;
+
+    @Param({"JPEG", "PNG", "TRANSPARENT_PNG"})
+    private BenchmarkImage image;
+
+    // the width of the original; 2560 and 4096 are wider than the web rendition
+    @Param({"1024", "2560", "4096"})
+    private int width;
+
+    private BenchmarkContext context;
+    private AdaptiveImageServlet servlet;
+    private Asset asset;
+    private ImageTransform transform;
+    private BufferedImage decodedImage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new BenchmarkContext();
+        context.start();
+        asset = context.createAsset(ASSET_PATH + "." + image.getExtension(), image, width, width * 3 / 4);
+
+        AdaptiveImageServletMetrics metrics = new AdaptiveImageServletMetrics();
+        metrics.metricsService = MetricsService.NOOP;
+        metrics.activate();
+        servlet = new AdaptiveImageServlet(context.getService(MimeTypeService.class), BenchmarkContext.createAssetStore(), metrics,
+                null, AdaptiveImageServlet.DEFAULT_RESIZE_WIDTH, AdaptiveImageServlet.DEFAULT_MAX_SIZE, null, null, null, null);
+        transform = ImageTransform.of(ValueMap.EMPTY).withWidth(RESIZE_WIDTH).withQuality(AdaptiveImageServlet.DEFAULT_JPEG_QUALITY);
+        try (InputStream is = asset.getOriginal().getStream()) {
+            decodedImage = ImageIO.read(is);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Benchmark
+    public byte[] transformAndStreamAsset() throws IOException {
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.transformAndStreamAsset(response, transform, RESIZE_WIDTH, QUALITY, asset, image.getMimeType(),
+                asset.getName());
+        return response.getOutput();
+    }
+
+    @Benchmark
+    public EnhancedRendition getBestRendition() throws IOException {
+        return servlet.getBestRendition(asset, RESIZE_WIDTH, image.getMimeType());
+    }
+
+    @Benchmark
+    public byte[] resizeAndStreamLayer() throws IOException {
+        // the layer is resized in place, it has to be created for each invocation
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.resizeAndStreamLayer(response, new Layer(decodedImage), image.getMimeType(), RESIZE_WIDTH, QUALITY);
+        return response.getOutput();
+    }
+}
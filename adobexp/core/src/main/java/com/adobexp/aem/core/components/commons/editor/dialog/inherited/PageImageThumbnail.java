@@ -31,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adobexp.aem.core.components.commons.link.Link;
+import com.adobexp.aem.core.components.internal.models.RequestModelCache;
 import com.adobexp.aem.core.components.models.Image;
 import com.adobexp.aem.core.components.models.Teaser;
 import com.adobexp.aem.core.components.util.ComponentUtils;
@@ -109,13 +110,13 @@ public class PageImageThumbnail {
 
             // retrieve the page link from the component model
 
-            Teaser teaserModel = modelFactory.getModelFromWrappedRequest(request, component, Teaser.class);
+            Teaser teaserModel = RequestModelCache.getModelFromWrappedRequest(modelFactory, request, component, Teaser.class);
             @SuppressWarnings("rawtypes")
             Link link = null;
             if (teaserModel != null) {
                 link = teaserModel.getLink();
             } else {
-                Image imageModel = modelFactory.getModelFromWrappedRequest(request, component, Image.class);
+                Image imageModel = RequestModelCache.getModelFromWrappedRequest(modelFactory, request, component, Image.class);
                 if (imageModel != null) {
                     link = imageModel.getImageLink();
                 }
@@ -138,7 +139,7 @@ public class PageImageThumbnail {
             return;
         }
 
-        Image imageModel = modelFactory.getModelFromWrappedRequest(request, featuredImage, Image.class);
+        Image imageModel = RequestModelCache.getModelFromWrappedRequest(modelFactory, request, featuredImage, Image.class);
         if (imageModel == null) {
             log.info("the image model of {} is null", featuredImage.getPath());
             return;
@@ -15,9 +15,11 @@
  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
 package com.adobexp.aem.core.components.internal;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -42,6 +44,9 @@ import org.slf4j.LoggerFactory;
 
 import com.adobexp.aem.core.components.commons.link.Link;
 import com.adobexp.aem.core.components.commons.link.LinkManager;
+import com.adobexp.aem.core.components.internal.models.ExperienceFragmentImpl;
+import com.adobexp.aem.core.components.internal.models.RequestModelCache;
+import com.adobexp.aem.core.components.internal.resource.AssetResolutionCache;
 import com.adobexp.aem.core.components.internal.resource.CoreResourceWrapper;
 import com.adobexp.aem.core.components.models.ExperienceFragment;
 import com.adobexp.aem.core.components.models.Teaser;
@@ -85,9 +90,33 @@ public class Utils {
      */
     @NotNull
     public static Set<String> getPageResourceTypes(@NotNull Page page, @NotNull SlingHttpServletRequest request, @NotNull ModelFactory modelFactory) {
+        return getPageResourceTypes(page, request, modelFactory, null);
+    }
+
+    /**
+     * Returns a set of resource types for components used to render a given page, including those
+     * from the page template and embedded experience templates.
+     *
+     * @param page the {@link Page}
+     * @param request the current request
+     * @param modelFactory the {@link ModelFactory}
+     * @param fragmentPaths if not {@code null}, collects the paths of the experience fragment variations embedded in the page
+     *
+     * @return The set of resource types for components used to render a page.
+     */
+    @NotNull
+    public static Set<String> getPageResourceTypes(@NotNull Page page, @NotNull SlingHttpServletRequest request, @NotNull ModelFactory modelFactory,
+                                                   @Nullable Set<String> fragmentPaths) {
         Set<String> resourceTypes = new HashSet<>();
-        resourceTypes.addAll(getResourceTypes(page.getContentResource(), request, modelFactory));
-        resourceTypes.addAll(getTemplateResourceTypes(page, request, modelFactory));
+        Set<String> visitedFragments = fragmentPaths != null ? fragmentPaths : new HashSet<>();
+        Resource contentResource = page.getContentResource();
+        if (contentResource != null) {
+            collectResourceTypes(contentResource, request, modelFactory, resourceTypes, visitedFragments);
+        }
+        Resource templateResource = getTemplateStructure(page, request);
+        if (templateResource != null) {
+            collectResourceTypes(templateResource, request, modelFactory, resourceTypes, visitedFragments);
+        }
         return resourceTypes;
     }
 
@@ -104,14 +133,49 @@ public class Utils {
     @NotNull
     public static Set<String> getResourceTypes(@NotNull Resource resource, @NotNull SlingHttpServletRequest request, @NotNull ModelFactory modelFactory) {
         Set<String> resourceTypes = new HashSet<>();
-        resourceTypes.add(resource.getResourceType());
-        resourceTypes.addAll(getXFResourceTypes(resource, request, modelFactory));
-        for (Resource child : resource.getChildren()) {
-            resourceTypes.addAll(getResourceTypes(child, request, modelFactory));
-        }
+        collectResourceTypes(resource, request, modelFactory, resourceTypes, new HashSet<>());
         return resourceTypes;
     }
 
+    /**
+     * Adds the resource types of a resource tree, and of the experience fragments embedded in it, to a set. The tree is walked
+     * iteratively; experience fragments are only resolved for experience fragment components, and each fragment is walked once, which
+     * also guards against fragments embedding themselves.
+     *
+     * @param root the root of the tree
+     * @param request the current request
+     * @param modelFactory the {@link ModelFactory}
+     * @param resourceTypes the set the resource types are added to
+     * @param visitedFragments the paths of the experience fragment variations already walked; the walked fragments are added to it
+     */
+    private static void collectResourceTypes(@NotNull Resource root, @NotNull SlingHttpServletRequest request, @NotNull ModelFactory modelFactory,
+                                             @NotNull Set<String> resourceTypes, @NotNull Set<String> visitedFragments) {
+        ResourceResolver resourceResolver = root.getResourceResolver();
+        // resource type -> whether it is an experience fragment component
+        Map<String, Boolean> fragmentTypes = new HashMap<>();
+        Deque<Resource> resources = new ArrayDeque<>();
+        resources.push(root);
+        while (!resources.isEmpty()) {
+            Resource resource = resources.pop();
+            String resourceType = resource.getResourceType();
+            resourceTypes.add(resourceType);
+            Boolean fragmentType = fragmentTypes.get(resourceType);
+            if (fragmentType == null) {
+                fragmentType = resourceResolver.isResourceType(resource, ExperienceFragmentImpl.RESOURCE_TYPE_V2);
+                fragmentTypes.put(resourceType, fragmentType);
+            }
+            if (fragmentType) {
+                Resource fragmentResource = getFragmentResource(resource, request, modelFactory);
+                if (fragmentResource != null && visitedFragments.add(fragmentResource.getPath())) {
+                    resources.push(fragmentResource);
+                }
+            }
+            for (Resource child : resource.getChildren()) {
+                resources.push(child);
+            }
+        }
+    }
+
     /**
      * Returns a set of resource types for components included in the experience template
      *
@@ -123,17 +187,36 @@ public class Utils {
      */
     @NotNull
     public static Set<String> getXFResourceTypes(@NotNull Resource resource, @NotNull SlingHttpServletRequest request, @NotNull ModelFactory modelFactory) {
-        ExperienceFragment experienceFragment = modelFactory.getModelFromWrappedRequest(request, resource, ExperienceFragment.class);
+        Resource fragmentResource = getFragmentResource(resource, request, modelFactory);
+        if (fragmentResource != null) {
+            Set<String> resourceTypes = new HashSet<>();
+            Set<String> visitedFragments = new HashSet<>();
+            visitedFragments.add(fragmentResource.getPath());
+            collectResourceTypes(fragmentResource, request, modelFactory, resourceTypes, visitedFragments);
+            return resourceTypes;
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Returns the experience fragment variation rendered by an experience fragment component.
+     *
+     * @param resource the resource, will be tested to see if it's an experience fragment component
+     * @param request the current request
+     * @param modelFactory the {@link ModelFactory}
+     *
+     * @return the experience fragment variation, or {@code null} if the resource doesn't render one
+     */
+    @Nullable
+    private static Resource getFragmentResource(@NotNull Resource resource, @NotNull SlingHttpServletRequest request, @NotNull ModelFactory modelFactory) {
+        ExperienceFragment experienceFragment = RequestModelCache.getModelFromWrappedRequest(modelFactory, request, resource, ExperienceFragment.class);
         if (experienceFragment != null) {
             String fragmentPath = experienceFragment.getLocalizedFragmentVariationPath();
             if (StringUtils.isNotEmpty(fragmentPath)) {
-                Resource fragmentResource = resource.getResourceResolver().getResource(fragmentPath);
-                if (fragmentResource != null) {
-                    return getResourceTypes(fragmentResource, request, modelFactory);
-                }
+                return resource.getResourceResolver().getResource(fragmentPath);
             }
         }
-        return Collections.emptySet();
+        return null;
     }
 
     /**
@@ -145,18 +228,24 @@ public class Utils {
      *
      * @return a set of resource types for components included in the page template
      */
-    @SuppressWarnings("deprecation")
     @NotNull
     public static Set<String> getTemplateResourceTypes(@NotNull Page page, @NotNull SlingHttpServletRequest request, @NotNull ModelFactory modelFactory) {
+        Resource templateResource = getTemplateStructure(page, request);
+        if (templateResource != null) {
+            return getResourceTypes(templateResource, request, modelFactory);
+        }
+        return Collections.emptySet();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Nullable
+    private static Resource getTemplateStructure(@NotNull Page page, @NotNull SlingHttpServletRequest request) {
         Template template = page.getTemplate();
         if (template != null) {
             String templatePath = template.getPath() + AllowedComponentList.STRUCTURE_JCR_CONTENT;
-            Resource templateResource = request.getResourceResolver().getResource(templatePath);
-            if (templateResource != null) {
-                return getResourceTypes(templateResource, request, modelFactory);
-            }
+            return request.getResourceResolver().getResource(templatePath);
         }
-        return Collections.emptySet();
+        return null;
     }
 
     /**
@@ -329,9 +418,11 @@ public class Utils {
      * @param linkManager The link manager
      * @param currentStyle The style of the image resource
      * @param currentPage The page containing the image resource
+     * @param assetResolutionCache The cache through which the inherited file reference is resolved
      * @return The wrapped image resource augmented with inherited properties and child resource if inheritance is enabled, the plain image resource otherwise.
      */
-    public static Resource getWrappedImageResourceWithInheritance(Resource resource, LinkManager linkManager, Style currentStyle, Page currentPage) {
+    public static Resource getWrappedImageResourceWithInheritance(Resource resource, LinkManager linkManager, Style currentStyle, Page currentPage,
+                                                                  AssetResolutionCache assetResolutionCache) {
         if (resource == null) {
             LOGGER.error("The resource is not defined");
             return null;
@@ -410,6 +501,10 @@ public class Utils {
                 inheritedFileResource = inheritedResource.getChild(DownloadResource.NN_FILE);
                 inheritedAlt = inheritedProperties.get(ImageResource.PN_ALT, String.class);
                 inheritedAltValueFromDAM = inheritedProperties.get(PN_ALT_VALUE_FROM_DAM, Boolean.class);
+                // the callers render the inherited image through the same cache, so its asset is resolved only once per request
+                if (assetResolutionCache != null && StringUtils.startsWith(inheritedFileReference, "/")) {
+                    assetResolutionCache.getAsset(inheritedFileReference);
+                }
             }
             overriddenProperties.put(DownloadResource.PN_REFERENCE, inheritedFileReference);
             overriddenChildren.put(DownloadResource.NN_FILE, inheritedFileResource);
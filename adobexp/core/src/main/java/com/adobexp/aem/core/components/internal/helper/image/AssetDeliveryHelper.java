@@ -15,34 +15,26 @@
  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
 package com.adobexp.aem.core.components.internal.helper.image;
 
-import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.awt.Dimension;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.imageio.ImageIO;
-
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ValueMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import com.adobexp.aem.core.components.models.Image;
+import com.adobexp.aem.core.components.internal.resource.AssetResolutionCache;
 import com.adobe.cq.wcm.spi.AssetDelivery;
 import com.day.cq.commons.DownloadResource;
-import com.day.cq.commons.ImageResource;
 import com.day.cq.dam.api.Asset;
 import com.day.cq.dam.api.Rendition;
 
 public class AssetDeliveryHelper {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(AssetDeliveryHelper.class);
-
     private static String COMMA = ",";
     private static String PERCENTAGE = "p";
     private static String WIDTH_PARAMETER = "width";
@@ -57,18 +49,25 @@ public class AssetDeliveryHelper {
     private static String HORIZONTAL_FLIP = "HORIZONTAL";
     private static String VERTICAL_FLIP = "VERTICAL";
     private static String HORIZONTAL_AND_VERTICAL_FLIP = "HORIZONTAL_AND_VERTICAL";
-    private static int PSEUDO_WIDTH_PARAM = Integer.MAX_VALUE;
+    private static final int PSEUDO_WIDTH_PARAM = Integer.MAX_VALUE;
 
 
-    public static String getSrcSet(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource, @NotNull String imageName,
+    public static String getSrcSet(@NotNull AssetDelivery assetDelivery, @NotNull AssetResolutionCache assetResolutionCache,
+                                   @NotNull Resource imageComponentResource, @NotNull String imageName,
                                    @NotNull String extension, int[] smartSizes, int jpegQuality) {
 
         if (smartSizes.length == 0) {
             return null;
         }
+        UriTemplate srcTemplate = getSrcTemplate(assetDelivery, assetResolutionCache, imageComponentResource, imageName, extension,
+                jpegQuality);
+        if (srcTemplate != null) {
+            return getSrcSet(srcTemplate, smartSizes);
+        }
         List<String> srcsetList = new ArrayList<String>();
         for (int i = 0; i < smartSizes.length; i++) {
-            String src =  getSrc(assetDelivery, imageComponentResource,  imageName, extension, smartSizes[i], jpegQuality);
+            String src =  getSrc(assetDelivery, assetResolutionCache, imageComponentResource,  imageName, extension, smartSizes[i],
+                    jpegQuality);
             if (!StringUtils.isEmpty(src)) {
                 srcsetList.add(src + " " + smartSizes[i] + "w");
             }
@@ -81,18 +80,74 @@ public class AssetDeliveryHelper {
         return null;
     }
 
-    public static String getSrcUriTemplate(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource,
+    /**
+     * Renders a {@code srcset} from a template returned by
+     * {@link #getSrcTemplate(AssetDelivery, AssetResolutionCache, Resource, String, String, Integer)}.
+     *
+     * @param srcTemplate the template
+     * @param smartSizes  the widths of the {@code srcset}
+     * @return the {@code srcset}, or {@code null} if there are no widths
+     */
+    @Nullable
+    public static String getSrcSet(@NotNull UriTemplate srcTemplate, int[] smartSizes) {
+        if (smartSizes.length == 0) {
+            return null;
+        }
+        StringBuilder srcset = new StringBuilder();
+        for (int smartSize : smartSizes) {
+            if (srcset.length() > 0) {
+                srcset.append(COMMA);
+            }
+            String width = String.valueOf(smartSize);
+            srcTemplate.appendTo(srcset, width).append(' ').append(width).append('w');
+        }
+        return srcset.toString();
+    }
+
+    public static String getSrcUriTemplate(@NotNull AssetDelivery assetDelivery, @NotNull AssetResolutionCache assetResolutionCache,
+                                           @NotNull Resource imageComponentResource,
                                            @NotNull String imageName, @NotNull String extension,
                                            @Nullable Integer jpegQuality, @NotNull String widthPlaceholder) {
 
-        String templateUrl = getSrc(assetDelivery, imageComponentResource, imageName, extension, PSEUDO_WIDTH_PARAM, jpegQuality);
-        if(!StringUtils.isEmpty(templateUrl)) {
-            templateUrl = templateUrl.replaceAll(String.valueOf(PSEUDO_WIDTH_PARAM), widthPlaceholder);
+        String src = getSrc(assetDelivery, assetResolutionCache, imageComponentResource, imageName, extension, PSEUDO_WIDTH_PARAM,
+                jpegQuality);
+        if (StringUtils.isEmpty(src)) {
+            return null;
+        }
+        // a delivery URL without the width is still the URL of the image, it's just the same for all the widths
+        UriTemplate srcTemplate = UriTemplate.compile(src, String.valueOf(PSEUDO_WIDTH_PARAM));
+        return srcTemplate.hasVariables() ? srcTemplate.expand(widthPlaceholder) : src;
+    }
+
+    /**
+     * Returns the delivery URL of an image as a template whose only variable is the width, so that the URLs of all the widths of the
+     * image are rendered from a single delivery URL.
+     *
+     * @param assetDelivery          the asset delivery service
+     * @param assetResolutionCache   the asset resolution cache of the current request
+     * @param imageComponentResource the image component resource
+     * @param imageName              the SEO name of the image
+     * @param extension              the extension of the image
+     * @param jpegQuality            the quality of the image
+     * @return the template, or {@code null} if the image cannot be delivered or if the delivery URL doesn't contain the requested width
+     * (e.g. because the delivery clamps it), in which case the URL of each width has to be requested with
+     * {@link #getSrc(AssetDelivery, AssetResolutionCache, Resource, String, String, Integer, Integer)}
+     */
+    @Nullable
+    public static UriTemplate getSrcTemplate(@NotNull AssetDelivery assetDelivery, @NotNull AssetResolutionCache assetResolutionCache,
+                                             @NotNull Resource imageComponentResource,
+                                             @NotNull String imageName, @NotNull String extension, @Nullable Integer jpegQuality) {
+        String src = getSrc(assetDelivery, assetResolutionCache, imageComponentResource, imageName, extension, PSEUDO_WIDTH_PARAM,
+                jpegQuality);
+        if (StringUtils.isEmpty(src)) {
+            return null;
         }
-        return templateUrl;
+        UriTemplate srcTemplate = UriTemplate.compile(src, String.valueOf(PSEUDO_WIDTH_PARAM));
+        return srcTemplate.hasVariables() ? srcTemplate : null;
     }
 
-    public static  String getSrc(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource,
+    public static  String getSrc(@NotNull AssetDelivery assetDelivery, @NotNull AssetResolutionCache assetResolutionCache,
+                                  @NotNull Resource imageComponentResource,
                                   @NotNull String imageName, @NotNull String extension,
                                   @Nullable Integer width, @Nullable Integer jpegQuality) {
 
@@ -106,14 +161,15 @@ public class AssetDeliveryHelper {
             return null;
         }
 
-        Resource assetResource = imageComponentResource.getResourceResolver().getResource(assetPath);
+        Resource assetResource = assetResolutionCache.getResource(assetPath);
         if (assetResource == null) {
             return null;
         }
 
+        ImageTransform transform = ImageTransform.of(componentProperties);
         // we have to get the with and height of the web rendition to calculate relative crop parameter
-        if (StringUtils.isNotEmpty(componentProperties.get(ImageResource.PN_IMAGE_CROP, String.class))) {
-            Asset asset = assetResource.adaptTo(Asset.class);
+        if (transform.hasCrop()) {
+            Asset asset = assetResolutionCache.getAsset(assetPath);
             if (asset != null) {
 
                 Rendition assetRendition = asset.getRendition(asset1 -> {
@@ -125,14 +181,10 @@ public class AssetDeliveryHelper {
                     return null;
                 });
                 if (assetRendition != null) {
-                    try {
-                        BufferedImage image = ImageIO.read(assetRendition.getStream());
-                        int imageHeight = image.getHeight();
-                        int imageWidth = image.getWidth();
-                        params.put("imageHeight", imageHeight);
-                        params.put("imageWidth", imageWidth);
-                    } catch (IOException e) {
-                        LOGGER.error(e.getMessage());
+                    Dimension dimension = RenditionDimensions.get(assetResolutionCache, assetRendition);
+                    if (dimension != null) {
+                        params.put("imageHeight", (int) dimension.getHeight());
+                        params.put("imageWidth", (int) dimension.getWidth());
                     }
                 }
             }
@@ -149,9 +201,9 @@ public class AssetDeliveryHelper {
             addWidthParameter(params, width);
         }
 
-        addCropParameter(params, componentProperties);
-        addRotationParameter(params, componentProperties);
-        addFlipParameter(params, componentProperties);
+        addCropParameter(params, transform);
+        addRotationParameter(params, transform);
+        addFlipParameter(params, transform);
 
         String assetDeliveryURL = assetDelivery.getDeliveryURL(assetResource, params);
         if (!StringUtils.isEmpty(assetDeliveryURL)) {
@@ -168,22 +220,22 @@ public class AssetDeliveryHelper {
         params.put(WIDTH_PARAMETER, "" + width);
     }
 
-    private static void addCropParameter(@NotNull Map<String, Object> params, @NotNull ValueMap componentProperties) {
-        String cropParameter = getCropRect(componentProperties, params);
+    private static void addCropParameter(@NotNull Map<String, Object> params, @NotNull ImageTransform transform) {
+        String cropParameter = getCropRect(transform, params);
         if (!StringUtils.isEmpty(cropParameter)) {
             params.put(CROP_PARAMETER, cropParameter);
         }
     }
 
-    private static void addRotationParameter(@NotNull Map<String, Object> params, @NotNull ValueMap componentProperties) {
-        int rotate = getRotation(componentProperties);
-        if (Integer.valueOf(rotate) != null && rotate != 0) {
+    private static void addRotationParameter(@NotNull Map<String, Object> params, @NotNull ImageTransform transform) {
+        int rotate = transform.getRotation();
+        if (rotate != 0) {
             params.put(ROTATE_PARAMETER, "" + rotate);
         }
     }
 
-    private static void addFlipParameter(@NotNull Map<String, Object> params, @NotNull ValueMap componentProperties) {
-        String flipParameter = getFlip(componentProperties);
+    private static void addFlipParameter(@NotNull Map<String, Object> params, @NotNull ImageTransform transform) {
+        String flipParameter = getFlip(transform);
         if (!StringUtils.isEmpty(flipParameter)) {
             params.put(FLIP_PARAMETER, flipParameter);
         }
@@ -192,42 +244,31 @@ public class AssetDeliveryHelper {
     /**
      * Retrieves the cropping rectangle, if one is defined for the image.
      *
-     * @param properties the image component's properties
-     * @param params  image parameter
-     * @return the cropping parameters, if one is found, {@code null} otherwise
+     * @param transform the image component's transformation
+     * @param params    image parameter
+     * @return the cropping parameters, if one is found, an empty string otherwise
      */
-    private static String getCropRect(@NotNull ValueMap properties, Map<String, Object> params) {
-        String csv = properties.get(ImageResource.PN_IMAGE_CROP, String.class);
+    private static String getCropRect(@NotNull ImageTransform transform, Map<String, Object> params) {
         String cropRect = StringUtils.EMPTY;
-        if (StringUtils.isNotEmpty(csv)) {
-            try {
-                int ratio = csv.indexOf('/');
-                if (ratio >= 0) {
-                    // skip ratio
-                    csv = csv.substring(0, ratio);
-                }
-                int imageHeight = (int)params.getOrDefault("imageHeight", 0);
-                int imageWidth = (int)params.getOrDefault("imageWidth", 0);
-
-                String[] coords = csv.split(",");
-                double x1 = Integer.parseInt(coords[0]);
-                double y1 = Integer.parseInt(coords[1]);
-                double x2 = Integer.parseInt(coords[2]);
-                double y2 = Integer.parseInt(coords[3]);
-                if (imageHeight > 0 && imageWidth > 0) {
-                    double width = round( (x2 - x1) / imageWidth * 100);
-                    double height = round((y2-y1) / imageHeight * 100);
-                    x1 = round(( x1 / imageWidth * 100));
-                    y1 = round( y1 / imageHeight * 100);
-                    cropRect = x1 + PERCENTAGE + COMMA + y1 + PERCENTAGE + COMMA + width + PERCENTAGE + COMMA + height + PERCENTAGE;
-                }
-                else {
-                    double width = round(x2-x1);
-                    double height = round(y2-y1);
-                    cropRect =  x1 + COMMA + y1 + COMMA + width + COMMA + height;
-                }
-            } catch (RuntimeException e) {
-                LOGGER.warn(String.format("Invalid cropping rectangle %s.", csv), e);
+        if (transform.hasCrop()) {
+            int imageHeight = (int)params.getOrDefault("imageHeight", 0);
+            int imageWidth = (int)params.getOrDefault("imageWidth", 0);
+
+            double x1 = transform.getCropX1();
+            double y1 = transform.getCropY1();
+            double x2 = transform.getCropX2();
+            double y2 = transform.getCropY2();
+            if (imageHeight > 0 && imageWidth > 0) {
+                double width = round( (x2 - x1) / imageWidth * 100);
+                double height = round((y2-y1) / imageHeight * 100);
+                x1 = round(( x1 / imageWidth * 100));
+                y1 = round( y1 / imageHeight * 100);
+                cropRect = x1 + PERCENTAGE + COMMA + y1 + PERCENTAGE + COMMA + width + PERCENTAGE + COMMA + height + PERCENTAGE;
+            }
+            else {
+                double width = round(x2-x1);
+                double height = round(y2-y1);
+                cropRect =  x1 + COMMA + y1 + COMMA + width + COMMA + height;
             }
         }
         return cropRect;
@@ -238,32 +279,14 @@ public class AssetDeliveryHelper {
         return (double) Math.round(value * scale) / scale;
     }
 
-    /**
-     * Retrieves the rotation angle for the image, if one is present. Typically this should be a value between 0 and 360.
-     *
-     * @param properties the image component's properties
-     * @return the rotation angle
-     */
-    private static int getRotation(@NotNull ValueMap properties) {
-        String rotationString = properties.get(ImageResource.PN_IMAGE_ROTATE, String.class);
-        if (rotationString != null) {
-            try {
-                return Integer.parseInt(rotationString);
-            } catch (NumberFormatException e) {
-                LOGGER.warn(String.format("Invalid rotation value %s.", rotationString), e);
-            }
-        }
-        return 0;
-    }
-
     /**
      * Retrieves the flip parameter for the image, if one is present.
-     * @param properties the image component's properties
+     * @param transform the image component's transformation
      * @return the flip parameter
      */
-    private static String getFlip(@NotNull ValueMap properties) {
-        boolean flipHorizontally = properties.get(Image.PN_FLIP_HORIZONTAL, Boolean.FALSE);
-        boolean flipVertically = properties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE);
+    private static String getFlip(@NotNull ImageTransform transform) {
+        boolean flipHorizontally = transform.isFlippedHorizontally();
+        boolean flipVertically = transform.isFlippedVertically();
         if (flipHorizontally && flipVertically) {
             return HORIZONTAL_AND_VERTICAL_FLIP;
         } else if (flipHorizontally) {
@@ -0,0 +1,290 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.helper.image;
+
+import java.awt.Rectangle;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobexp.aem.core.components.models.Image;
+import com.day.cq.commons.ImageResource;
+
+/**
+ * The transformation an image component applies to its image: the cropping, rotation and flipping defined by the component's
+ * properties and the width and quality it is rendered at. Transformations are immutable; the crop and rotation properties are parsed
+ * once, in a single pass, when the transformation is created.
+ */
+public final class ImageTransform {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageTransform.class);
+
+    private static final char SEPARATOR = '|';
+    private static final int CROP_COORDINATES = 4;
+
+    private final int[] crop;
+    private final int rotation;
+    private final boolean flipHorizontally;
+    private final boolean flipVertically;
+    private final int width;
+    private final int quality;
+
+    private String canonical;
+
+    private ImageTransform(@Nullable int[] crop, int rotation, boolean flipHorizontally, boolean flipVertically, int width, int quality) {
+        this.crop = crop;
+        this.rotation = rotation;
+        this.flipHorizontally = flipHorizontally;
+        this.flipVertically = flipVertically;
+        this.width = width;
+        this.quality = quality;
+    }
+
+    /**
+     * Creates the transformation defined by the properties of an image component, without resizing.
+     *
+     * @param properties the image component's properties
+     * @return the transformation
+     */
+    @NotNull
+    public static ImageTransform of(@NotNull ValueMap properties) {
+        return new ImageTransform(parseCrop(properties.get(ImageResource.PN_IMAGE_CROP, String.class)),
+                parseRotation(properties.get(ImageResource.PN_IMAGE_ROTATE, String.class)),
+                properties.get(Image.PN_FLIP_HORIZONTAL, Boolean.FALSE),
+                properties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE),
+                0, 0);
+    }
+
+    /**
+     * Creates the same transformation, resized to another width.
+     *
+     * @param width the resize width, in pixels, or {@code 0} to not resize
+     * @return the transformation
+     */
+    @NotNull
+    public ImageTransform withWidth(int width) {
+        if (width == this.width) {
+            return this;
+        }
+        return new ImageTransform(crop, rotation, flipHorizontally, flipVertically, width, quality);
+    }
+
+    /**
+     * Creates the same transformation, rendered at another quality.
+     *
+     * @param quality the quality, in percent
+     * @return the transformation
+     */
+    @NotNull
+    public ImageTransform withQuality(int quality) {
+        if (quality == this.quality) {
+            return this;
+        }
+        return new ImageTransform(crop, rotation, flipHorizontally, flipVertically, width, quality);
+    }
+
+    /**
+     * @return {@code true} if the image is cropped, {@code false} otherwise
+     */
+    public boolean hasCrop() {
+        return crop != null;
+    }
+
+    /**
+     * Returns the cropping rectangle, relative to the image the crop was defined on (the asset's web rendition or the image file).
+     *
+     * @return the cropping rectangle, or {@code null} if the image is not cropped
+     */
+    @Nullable
+    public Rectangle getCropRectangle() {
+        if (crop == null) {
+            return null;
+        }
+        return new Rectangle(crop[0], crop[1], crop[2] - crop[0], crop[3] - crop[1]);
+    }
+
+    /**
+     * @return the left coordinate of the cropping rectangle
+     */
+    public int getCropX1() {
+        return crop != null ? crop[0] : 0;
+    }
+
+    /**
+     * @return the top coordinate of the cropping rectangle
+     */
+    public int getCropY1() {
+        return crop != null ? crop[1] : 0;
+    }
+
+    /**
+     * @return the right coordinate of the cropping rectangle
+     */
+    public int getCropX2() {
+        return crop != null ? crop[2] : 0;
+    }
+
+    /**
+     * @return the bottom coordinate of the cropping rectangle
+     */
+    public int getCropY2() {
+        return crop != null ? crop[3] : 0;
+    }
+
+    /**
+     * @return the rotation angle, in degrees
+     */
+    public int getRotation() {
+        return rotation;
+    }
+
+    public boolean isFlippedHorizontally() {
+        return flipHorizontally;
+    }
+
+    public boolean isFlippedVertically() {
+        return flipVertically;
+    }
+
+    /**
+     * @return the resize width, in pixels, or {@code 0} if the image is not resized
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the quality, in percent, or {@code 0} if not defined
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * @return {@code true} if the image is cropped, rotated or flipped, {@code false} otherwise
+     */
+    public boolean hasTransformation() {
+        return crop != null || rotation != 0 || flipHorizontally || flipVertically;
+    }
+
+    /**
+     * Appends the canonical representation of this transformation, e.g. to build a cache key.
+     *
+     * @param builder the builder
+     * @return the builder
+     */
+    @NotNull
+    public StringBuilder appendTo(@NotNull StringBuilder builder) {
+        if (crop != null) {
+            builder.append(crop[0]).append(',').append(crop[1]).append(',').append(crop[2]).append(',').append(crop[3]);
+        }
+        return builder.append(SEPARATOR)
+                .append(rotation).append(SEPARATOR)
+                .append(flipHorizontally ? 'h' : '-')
+                .append(flipVertically ? 'v' : '-').append(SEPARATOR)
+                .append(width).append(SEPARATOR)
+                .append(quality);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ImageTransform)) {
+            return false;
+        }
+        return toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (canonical == null) {
+            canonical = appendTo(new StringBuilder(48)).toString();
+        }
+        return canonical;
+    }
+
+    /**
+     * Parses a crop property ({@code x1,y1,x2,y2}, optionally followed by {@code /ratio}).
+     *
+     * @param csv the crop property
+     * @return the coordinates, or {@code null} if the property is missing or invalid
+     */
+    @Nullable
+    static int[] parseCrop(@Nullable String csv) {
+        if (csv == null || csv.isEmpty()) {
+            return null;
+        }
+        int[] coordinates = new int[CROP_COORDINATES];
+        int coordinate = 0;
+        int value = 0;
+        int digits = 0;
+        boolean negative = false;
+        for (int i = 0, length = csv.length(); i <= length && coordinate < CROP_COORDINATES; i++) {
+            char c = i < length ? csv.charAt(i) : ',';
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (++digits > 9) {
+                    break;
+                }
+            } else if (c == '-' && digits == 0 && !negative) {
+                negative = true;
+            } else if ((c == ',' || c == '/') && digits > 0) {
+                coordinates[coordinate++] = negative ? -value : value;
+                value = 0;
+                digits = 0;
+                negative = false;
+                if (c == '/') {
+                    // skip ratio
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+        if (coordinate < CROP_COORDINATES) {
+            LOGGER.warn("Invalid cropping rectangle {}.", csv);
+            return null;
+        }
+        return coordinates;
+    }
+
+    /**
+     * Parses a rotation property.
+     *
+     * @param rotation the rotation property
+     * @return the rotation angle, or {@code 0} if the property is missing or invalid
+     */
+    static int parseRotation(@Nullable String rotation) {
+        if (rotation != null) {
+            try {
+                return Integer.parseInt(rotation);
+            } catch (NumberFormatException e) {
+                LOGGER.warn(String.format("Invalid rotation value %s.", rotation), e);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,98 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.helper.image;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobexp.aem.core.components.internal.resource.AssetResolutionCache;
+import com.day.cq.dam.api.DamConstants;
+import com.day.cq.dam.api.Rendition;
+
+/**
+ * Determines the dimensions of renditions without decoding them: the dimensions are read from the rendition's metadata or, if missing,
+ * from the image header. The dimensions are memoized in the {@link AssetResolutionCache} of the current request, so each rendition is
+ * probed at most once per request and changes to the rendition are picked up by the next request.
+ */
+final class RenditionDimensions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RenditionDimensions.class);
+
+    private RenditionDimensions() {
+    }
+
+    /**
+     * Returns the dimensions of a rendition.
+     *
+     * @param assetResolutionCache the asset resolution cache of the current request
+     * @param rendition            the rendition
+     * @return the rendition's dimensions, or {@code null} if they cannot be determined
+     */
+    @Nullable
+    static Dimension get(@NotNull AssetResolutionCache assetResolutionCache, @NotNull Rendition rendition) {
+        return assetResolutionCache.getDimension(rendition.getPath(), () -> {
+            Dimension dimension = fromMetadata(rendition);
+            return dimension != null ? dimension : fromHeader(rendition);
+        });
+    }
+
+    @Nullable
+    private static Dimension fromMetadata(@NotNull Rendition rendition) {
+        ValueMap properties = rendition.getProperties();
+        Integer width = properties.get(DamConstants.TIFF_IMAGEWIDTH, Integer.class);
+        Integer height = properties.get(DamConstants.TIFF_IMAGELENGTH, Integer.class);
+        if (width != null && height != null && width > 0 && height > 0) {
+            return new Dimension(width, height);
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Dimension fromHeader(@NotNull Rendition rendition) {
+        try (InputStream stream = rendition.getStream();
+             ImageInputStream imageStream = stream != null ? ImageIO.createImageInputStream(stream) : null) {
+            if (imageStream == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageStream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Cannot read the dimensions of rendition {}", rendition.getPath(), e);
+            return null;
+        }
+    }
+}
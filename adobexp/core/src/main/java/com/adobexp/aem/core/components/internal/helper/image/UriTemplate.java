@@ -0,0 +1,138 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.helper.image;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A URI template compiled into literal and variable segments, so that it can be expanded many times (e.g. once per {@code srcset}
+ * width) without searching and replacing the variables every time. The variables are plain strings (e.g. {@code {.width}}) that are
+ * replaced verbatim.
+ */
+public final class UriTemplate {
+
+    private final String template;
+    private final String[] literals;
+    private final int[] variables;
+    private final int literalsLength;
+
+    private UriTemplate(@NotNull String template, @NotNull String[] literals, @NotNull int[] variables) {
+        this.template = template;
+        this.literals = literals;
+        this.variables = variables;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalsLength = length;
+    }
+
+    /**
+     * Compiles a template.
+     *
+     * @param template  the template
+     * @param variables the variables of the template; the values passed when expanding the template are in the same order
+     * @return the compiled template
+     */
+    @NotNull
+    public static UriTemplate compile(@NotNull String template, @NotNull String... variables) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> occurrences = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int next = -1;
+            int variable = -1;
+            for (int i = 0; i < variables.length; i++) {
+                if (variables[i].isEmpty()) {
+                    continue;
+                }
+                int index = template.indexOf(variables[i], position);
+                if (index >= 0 && (next < 0 || index < next || (index == next && variables[i].length() > variables[variable].length()))) {
+                    next = index;
+                    variable = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            literals.add(template.substring(position, next));
+            occurrences.add(variable);
+            position = next + variables[variable].length();
+        }
+        literals.add(template.substring(position));
+        int[] variableIndexes = new int[occurrences.size()];
+        for (int i = 0; i < variableIndexes.length; i++) {
+            variableIndexes[i] = occurrences.get(i);
+        }
+        return new UriTemplate(template, literals.toArray(new String[0]), variableIndexes);
+    }
+
+    /**
+     * Expands the template.
+     *
+     * @param values the values of the variables, in the order they were passed to {@link #compile(String, String...)}
+     * @return the expanded template
+     */
+    @NotNull
+    public String expand(@NotNull String... values) {
+        if (variables.length == 0) {
+            return template;
+        }
+        int length = literalsLength;
+        for (int variable : variables) {
+            length += values[variable].length();
+        }
+        return appendTo(new StringBuilder(length), values).toString();
+    }
+
+    /**
+     * Expands the template at the end of a builder, e.g. when rendering a list of URIs.
+     *
+     * @param builder the builder
+     * @param values  the values of the variables, in the order they were passed to {@link #compile(String, String...)}
+     * @return the builder
+     */
+    @NotNull
+    public StringBuilder appendTo(@NotNull StringBuilder builder, @NotNull String... values) {
+        for (int i = 0; i < variables.length; i++) {
+            builder.append(literals[i]).append(values[variables[i]]);
+        }
+        return builder.append(literals[variables.length]);
+    }
+
+    /**
+     * @return {@code true} if the template contains at least one of its variables, {@code false} otherwise
+     */
+    public boolean hasVariables() {
+        return variables.length > 0;
+    }
+
+    /**
+     * @return the template
+     */
+    @NotNull
+    public String getTemplate() {
+        return template;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -33,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import com.adobexp.aem.core.components.commons.link.Link;
 import com.adobexp.aem.core.components.commons.link.LinkBuilder;
+import com.adobexp.aem.core.components.internal.resource.AssetResolutionCache;
 import com.adobexp.aem.core.components.services.link.PathProcessor;
 import com.day.cq.dam.api.Asset;
 import com.day.cq.wcm.api.Page;
@@ -262,9 +263,7 @@ public class LinkBuilderImpl implements LinkBuilder {
      */
     @Nullable
     private Asset getAsset(@NotNull String path) {
-        return Optional.ofNullable(request.getResourceResolver().getResource(path))
-                .map(assetRes -> assetRes.adaptTo(Asset.class))
-                .orElse(null);
+        return AssetResolutionCache.get(request).getAsset(path);
     }
 
     /**
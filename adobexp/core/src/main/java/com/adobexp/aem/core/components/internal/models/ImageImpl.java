@@ -28,18 +28,12 @@ import java.util.TreeSet;
 
 import javax.annotation.PostConstruct;
 import javax.json.Json;
-import javax.json.JsonException;
 import javax.json.JsonObject;
-import javax.json.JsonReader;
 import javax.json.JsonValue;
 import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
 import javax.json.JsonObjectBuilder;
 
-import org.apache.http.client.ResponseHandler;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.osgi.services.HttpClientBuilderFactory;
-
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -66,9 +60,14 @@ import org.slf4j.LoggerFactory;
 import com.adobexp.aem.core.components.commons.link.Link;
 import com.adobexp.aem.core.components.commons.link.LinkManager;
 import com.adobexp.aem.core.components.internal.helper.image.AssetDeliveryHelper;
+import com.adobexp.aem.core.components.internal.helper.image.UriTemplate;
 import com.adobexp.aem.core.components.internal.link.LinkUtil;
+import com.adobexp.aem.core.components.internal.resource.AssetResolutionCache;
+import com.adobexp.aem.core.components.internal.services.ngdm.NextGenDMMetadataService;
 import com.adobexp.aem.core.components.internal.servlets.AdaptiveImageServlet;
 import com.adobexp.aem.core.components.internal.servlets.EnhancedRendition;
+import com.adobexp.aem.core.components.internal.servlets.ImageIOEncoder;
+import com.adobexp.aem.core.components.internal.servlets.ImagePlaceholderGenerator;
 import com.adobexp.aem.core.components.models.Image;
 import com.adobexp.aem.core.components.models.ImageArea;
 import com.adobe.cq.wcm.spi.AssetDelivery;
@@ -89,10 +88,11 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 
 import com.adobe.cq.ui.wcm.commons.config.NextGenDynamicMediaConfig;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.awt.Dimension;
-import java.io.IOException;
-import java.io.StringReader;
 
 import static com.adobexp.aem.core.components.models.Teaser.PN_IMAGE_LINK_HIDDEN;
 import static com.adobexp.aem.core.components.internal.Utils.getWrappedImageResourceWithInheritance;
@@ -102,11 +102,14 @@ public class ImageImpl implements Image {
 
     public static final String RESOURCE_TYPE = "adobexp/components/image/v1/image";
     private static final String DEFAULT_EXTENSION = "jpeg";
+    private static final String WEBP_EXTENSION = "webp";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ImageImpl.class);
     protected static final String DOT = ".";
     protected static final String MIME_TYPE_IMAGE_JPEG = "image/jpeg";
     protected static final String MIME_TYPE_IMAGE_SVG = "image/svg+xml";
+    private static final String MIME_TYPE_IMAGE_PNG = "image/png";
+    private static final String MIME_TYPE_IMAGE_WEBP = "image/webp";
     private static final String MIME_TYPE_IMAGE_PREFIX = "image/";
     protected static final String SEO_NAME_FILTER_PATTERN = "[\\W|_]";
 
@@ -207,6 +210,7 @@ public class ImageImpl implements Image {
     private static final String URI_WIDTH_PLACEHOLDER = "{.width}";
     private static final String EMPTY_PIXEL = "data:image/gif;base64,R0lGODlhAQABAAAAACH5BAEKAAEALAAAAAABAAEAAAICTAEAOw==";
     static final int DEFAULT_NGDM_ASSET_WIDTH = 640;
+    private static final JsonBuilderFactory JSON_BUILDER_FACTORY = Json.createBuilderFactory(Collections.emptyMap());
 
     @OSGiService
     @Optional
@@ -214,19 +218,24 @@ public class ImageImpl implements Image {
 
     @OSGiService
     @Optional
-    private HttpClientBuilderFactory clientBuilderFactory;
+    private NextGenDMMetadataService metadataService;
+
+    @OSGiService
+    @Optional
+    private ImagePlaceholderGenerator placeholderGenerator;
 
     private boolean imageLinkHidden = false;
 
     private String srcSet = StringUtils.EMPTY;
     private String sizes;
+    private String placeholder;
 
     private Dimension dimension;
 
     private boolean ngdmImage = false;
-    private CloseableHttpClient client;
-    private static final String PATH_PLACEHOLDER_ASSET_ID = "{asset-id}";
-    private String metadataDeliveryEndpoint;
+    private UriTemplate ngdmSrcTemplate;
+    private UriTemplate assetDeliverySrcTemplate;
+    private CompletableFuture<JsonObject> remoteAssetMetadata;
 
     public ImageImpl() {
         selector = AdaptiveImageServlet.CORE_DEFAULT_SELECTOR;
@@ -281,9 +290,10 @@ public class ImageImpl implements Image {
 
         if (StringUtils.isNotEmpty(fileReference)) {
             // the image is coming from DAM
-            final Resource assetResource = request.getResourceResolver().getResource(fileReference);
+            AssetResolutionCache assetResolutionCache = AssetResolutionCache.get(request);
+            final Resource assetResource = assetResolutionCache.getResource(fileReference);
             if (assetResource != null) {
-                asset = assetResource.adaptTo(Asset.class);
+                asset = assetResolutionCache.getAsset(fileReference);
                 if (asset != null) {
                     mimeType = PropertiesUtil.toString(asset.getMimeType(), MIME_TYPE_IMAGE_JPEG);
                     imageName = getImageNameFromAsset(asset);
@@ -351,6 +361,11 @@ public class ImageImpl implements Image {
             if (extension == null || extension.equalsIgnoreCase("tif") || extension.equalsIgnoreCase("tiff")) {
                 extension = DEFAULT_EXTENSION;
             }
+            if (!useAssetDelivery && currentStyle.get(PN_DESIGN_WEBP_ENABLED, false)
+                    && (MIME_TYPE_IMAGE_JPEG.equals(mimeType) || MIME_TYPE_IMAGE_PNG.equals(mimeType) || DEFAULT_EXTENSION.equals(extension))
+                    && ImageIOEncoder.canWrite(MIME_TYPE_IMAGE_WEBP)) {
+                extension = WEBP_EXTENSION;
+            }
             disableLazyLoading = currentStyle.get(PN_DESIGN_LAZY_LOADING_ENABLED, false);
             jpegQuality = currentStyle.get(PN_DESIGN_JPEG_QUALITY, AdaptiveImageServlet.DEFAULT_JPEG_QUALITY);
             int index = 0;
@@ -367,23 +382,30 @@ public class ImageImpl implements Image {
                 }
             }
             baseResourcePath = resource.getResourceResolver().map(request, baseResourcePath);
+            AssetResolutionCache assetResolutionCache = AssetResolutionCache.get(request);
+            if (useAssetDelivery) {
+                assetDeliverySrcTemplate = AssetDeliveryHelper.getSrcTemplate(assetDelivery, assetResolutionCache, resource, imageName,
+                    extension, jpegQuality);
+            }
             if (smartSizesSupported()) {
                 Set<Integer> supportedRenditionWidths = getSupportedRenditionWidths();
                 smartImages = new String[supportedRenditionWidths.size()];
                 smartSizes = new int[supportedRenditionWidths.size()];
+                UriTemplate smartImageTemplate = assetDeliverySrcTemplate;
+                if (smartImageTemplate == null) {
+                    smartImageTemplate = UriTemplate.compile(baseResourcePath + DOT +
+                        selector + DOT + jpegQuality + DOT + SRC_URI_TEMPLATE_WIDTH_VAR + DOT + extension +
+                        (inTemplate ? Text.escapePath(templateRelativePath) : hasExternalImageResource ? externalImageResourcePath : "") +
+                        (lastModifiedDate > 0 ? ("/" + lastModifiedDate + (StringUtils.isNotBlank(imageName) ? ("/" + imageName) : "")) : "") +
+                        (inTemplate || hasExternalImageResource || lastModifiedDate > 0 ? DOT + extension : ""), SRC_URI_TEMPLATE_WIDTH_VAR);
+                }
                 for (Integer width : supportedRenditionWidths) {
-                    String smartImage = "";
-                    if (useAssetDelivery) {
-                        smartImage = AssetDeliveryHelper.getSrc(assetDelivery, resource, imageName, extension, width, jpegQuality);
+                    String smartImage = null;
+                    if (useAssetDelivery && assetDeliverySrcTemplate == null) {
+                        smartImage = AssetDeliveryHelper.getSrc(assetDelivery, assetResolutionCache, resource, imageName, extension,
+                            width, jpegQuality);
                     }
-                    if (StringUtils.isEmpty(smartImage)) {
-                        smartImage = baseResourcePath + DOT +
-                            selector + DOT + jpegQuality + DOT + width + DOT + extension +
-                            (inTemplate ? Text.escapePath(templateRelativePath) : hasExternalImageResource ? externalImageResourcePath : "") +
-                            (lastModifiedDate > 0 ? ("/" + lastModifiedDate + (StringUtils.isNotBlank(imageName) ? ("/" + imageName) : "")) : "") +
-                            (inTemplate || hasExternalImageResource || lastModifiedDate > 0 ? DOT + extension : "");
-                    }
-                    smartImages[index] = smartImage;
+                    smartImages[index] = StringUtils.isEmpty(smartImage) ? smartImageTemplate.expand(String.valueOf(width)) : smartImage;
                     smartSizes[index] = width;
                     index++;
                 }
@@ -393,9 +415,13 @@ public class ImageImpl implements Image {
             }
 
             if (useAssetDelivery) {
-                src = AssetDeliveryHelper.getSrc(assetDelivery, resource, imageName, extension,
-                    ArrayUtils.isNotEmpty(smartSizes) && smartSizes.length == 1 ? smartSizes[0] : null,
-                    jpegQuality);
+                if (assetDeliverySrcTemplate != null && smartSizes.length == 1) {
+                    src = smartImages[0];
+                } else {
+                    src = AssetDeliveryHelper.getSrc(assetDelivery, assetResolutionCache, resource, imageName, extension,
+                        ArrayUtils.isNotEmpty(smartSizes) && smartSizes.length == 1 ? smartSizes[0] : null,
+                        jpegQuality);
+                }
             }
 
             if (StringUtils.isEmpty(src)) {
@@ -433,9 +459,10 @@ public class ImageImpl implements Image {
         String dmImageUrl = null;
         if (StringUtils.isNotEmpty(fileReference)) {
             // the image is coming from DAM
-            final Resource assetResource = request.getResourceResolver().getResource(fileReference);
+            AssetResolutionCache assetResolutionCache = AssetResolutionCache.get(request);
+            final Resource assetResource = assetResolutionCache.getResource(fileReference);
             if (assetResource != null) {
-                asset = assetResource.adaptTo(Asset.class);
+                asset = assetResolutionCache.getAsset(fileReference);
                 if (asset != null) {
                     if (!uuidDisabled) {
                         uuid = asset.getID();
@@ -504,8 +531,10 @@ public class ImageImpl implements Image {
 
             if (dmImageUrl == null){
                 if (useAssetDelivery) {
-                    srcUriTemplate = AssetDeliveryHelper.getSrcUriTemplate(assetDelivery, resource, imageName, extension,
-                        jpegQuality, SRC_URI_TEMPLATE_WIDTH_VAR_ASSET_DELIVERY);
+                    srcUriTemplate = assetDeliverySrcTemplate != null
+                        ? assetDeliverySrcTemplate.expand(SRC_URI_TEMPLATE_WIDTH_VAR_ASSET_DELIVERY)
+                        : AssetDeliveryHelper.getSrcUriTemplate(assetDelivery, AssetResolutionCache.get(request), resource, imageName,
+                            extension, jpegQuality, SRC_URI_TEMPLATE_WIDTH_VAR_ASSET_DELIVERY);
                 }
 
                 if (StringUtils.isEmpty(srcUriTemplate)) {
@@ -590,6 +619,10 @@ public class ImageImpl implements Image {
             imageLinkHidden = properties.get(PN_IMAGE_LINK_HIDDEN, imageLinkHidden);
             sizes = String.join((", "), currentStyle.get(PN_DESIGN_SIZES, new String[0]));
             disableLazyLoading = properties.get(PN_DESIGN_LAZY_LOADING_ENABLED, currentStyle.get(PN_DESIGN_LAZY_LOADING_ENABLED, false));
+            if (!disableLazyLoading && !dmImage && asset != null && placeholderGenerator != null
+                    && currentStyle.get(PN_DESIGN_PLACEHOLDER_ENABLED, false)) {
+                placeholder = placeholderGenerator.getPlaceholder(asset);
+            }
         }
     }
 
@@ -667,15 +700,15 @@ public class ImageImpl implements Image {
 
     @SuppressWarnings({ "squid:CallToDeprecatedMethod", "deprecation" })
     protected void buildJson() {
-        JsonArrayBuilder smartSizesJsonBuilder = Json.createArrayBuilder();
+        JsonArrayBuilder smartSizesJsonBuilder = JSON_BUILDER_FACTORY.createArrayBuilder();
         for (int size : smartSizes) {
             smartSizesJsonBuilder.add(size);
         }
-        JsonArrayBuilder smartImagesJsonBuilder = Json.createArrayBuilder();
+        JsonArrayBuilder smartImagesJsonBuilder = JSON_BUILDER_FACTORY.createArrayBuilder();
         for (String image : smartImages) {
             smartImagesJsonBuilder.add(image);
         }
-        JsonObjectBuilder jsonObjectBuilder = Json.createObjectBuilder();
+        JsonObjectBuilder jsonObjectBuilder = JSON_BUILDER_FACTORY.createObjectBuilder();
         jsonObjectBuilder.add(JSON_SMART_IMAGES, smartImagesJsonBuilder);
         jsonObjectBuilder.add(JSON_SMART_SIZES, smartSizesJsonBuilder);
         jsonObjectBuilder.add(JSON_LAZY_ENABLED, !disableLazyLoading);
@@ -787,8 +820,10 @@ public class ImageImpl implements Image {
         }
 
         if (useAssetDelivery) {
-            srcSet = AssetDeliveryHelper.getSrcSet(assetDelivery, resource, imageName, extension, smartSizes,
-                jpegQuality);
+            srcSet = assetDeliverySrcTemplate != null
+                ? AssetDeliveryHelper.getSrcSet(assetDeliverySrcTemplate, smartSizes)
+                : AssetDeliveryHelper.getSrcSet(assetDelivery, AssetResolutionCache.get(request), resource, imageName, extension,
+                    smartSizes, jpegQuality);
             if (!StringUtils.isEmpty(srcSet)) {
                 return srcSet;
             }
@@ -798,14 +833,13 @@ public class ImageImpl implements Image {
         String srcUritemplate = getSrcUriTemplate();
 
         // handle srcset creation for auto smartcrop of remote assets
-        if (ngdmImage && StringUtils.equals(smartCropRendition, SMART_CROP_AUTO) && client != null
+        if (ngdmImage && StringUtils.equals(smartCropRendition, SMART_CROP_AUTO) && remoteAssetMetadata != null
             && srcUritemplate != null) {
             srcUritemplate = StringUtils.replace(srcUriTemplate, URI_WIDTH_PLACEHOLDER_ENCODED, URI_WIDTH_PLACEHOLDER);
             getRemoteAssetSrcset(srcUritemplate);
             return srcSet;
         }
 
-        String[] srcsetArray = new String[widthsArray.length];
         if (widthsArray.length > 0 && srcUritemplate != null) {
             srcUritemplate = StringUtils.replace(srcUriTemplate, URI_WIDTH_PLACEHOLDER_ENCODED, URI_WIDTH_PLACEHOLDER);
             if (srcUritemplate.contains(URI_WIDTH_PLACEHOLDER)) {
@@ -813,16 +847,16 @@ public class ImageImpl implements Image {
                 if (dmImage && StringUtils.equals(smartCropRendition, SMART_CROP_AUTO)) {
                     srcSet = EMPTY_PIXEL;
                 } else {
-                    for (int i = 0; i < widthsArray.length; i++) {
-                        if (srcUritemplate.contains("=" + URI_WIDTH_PLACEHOLDER)) {
-                            srcsetArray[i] =
-                                srcUritemplate.replace("{.width}", String.format("%s", widthsArray[i])) + " " + widthsArray[i] + "w";
-                        } else {
-                            srcsetArray[i] =
-                                srcUritemplate.replace("{.width}", String.format(".%s", widthsArray[i])) + " " + widthsArray[i] + "w";
+                    UriTemplate template = UriTemplate.compile(srcUritemplate, URI_WIDTH_PLACEHOLDER);
+                    String widthPrefix = srcUritemplate.contains("=" + URI_WIDTH_PLACEHOLDER) ? "" : DOT;
+                    StringBuilder srcsetBuilder = new StringBuilder();
+                    for (int width : widthsArray) {
+                        if (srcsetBuilder.length() > 0) {
+                            srcsetBuilder.append(',');
                         }
+                        template.appendTo(srcsetBuilder, widthPrefix + width).append(' ').append(width).append('w');
                     }
-                    srcSet = StringUtils.join(srcsetArray, ',');
+                    srcSet = srcsetBuilder.toString();
                 }
                 return srcSet;
             }
@@ -836,6 +870,12 @@ public class ImageImpl implements Image {
         return sizes;
     }
 
+    @Override
+    @Nullable
+    public String getPlaceholder() {
+        return placeholder;
+    }
+
     @Nullable
     @Override
     @JsonIgnore
@@ -875,7 +915,7 @@ public class ImageImpl implements Image {
     }
 
     protected void initResource() {
-        resource = getWrappedImageResourceWithInheritance(resource, linkManager, currentStyle, currentPage);
+        resource = getWrappedImageResourceWithInheritance(resource, linkManager, currentStyle, currentPage, AssetResolutionCache.get(request));
     }
 
     @Override
@@ -892,32 +932,29 @@ public class ImageImpl implements Image {
     }
 
     private void getRemoteAssetSrcset(String srcUritemplate) {
-        String endPointUrl = "https://" + nextGenDynamicMediaConfig.getRepositoryId() + metadataDeliveryEndpoint;
-        HttpGet get = new HttpGet(endPointUrl);
-        get.setHeader("X-Adobe-Accept-Experimental", "1");
-        ResponseHandler<String> responseHandler = new NextGenDMSrcsetBuilderResponseHandler();
         try {
-            String response = client.execute(get, responseHandler);
-            if (!StringUtils.isEmpty(response)) {
-                JsonReader jsonReader = Json.createReader(new StringReader(response));
-                JsonObject metadata = jsonReader.readObject();
-                jsonReader.close();
+            JsonObject metadata = remoteAssetMetadata.get(metadataService.getRenderTimeout(), TimeUnit.MILLISECONDS);
+            if (metadata != null) {
                 JsonObject repositoryMetadata = metadata.getJsonObject("repositoryMetadata");
                 JsonObject smartCrops = repositoryMetadata.getJsonObject("smartcrops");
-                String[] ngdmSrcsetArray = new String[smartCrops.size()];
-                int i = 0;
-                for (Map.Entry<String, JsonValue> entry : smartCrops.entrySet()) {
-                    String namedSmartCrop = entry.getKey();
-                    if (srcUritemplate.contains("=" + URI_WIDTH_PLACEHOLDER)) {
+                UriTemplate template = UriTemplate.compile(srcUritemplate, "width=" + URI_WIDTH_PLACEHOLDER);
+                StringBuilder ngdmSrcset = new StringBuilder();
+                if (template.hasVariables()) {
+                    for (Map.Entry<String, JsonValue> entry : smartCrops.entrySet()) {
+                        String namedSmartCrop = entry.getKey();
                         JsonValue smartCropWidth = smartCrops.getJsonObject(namedSmartCrop).get("width");
-                        ngdmSrcsetArray[i] =
-                            srcUritemplate.replace("width={.width}", String.format("smartcrop=%s", namedSmartCrop)) + " " + smartCropWidth.toString().replaceAll("\"", "") + "w";
-                        i++;
+                        if (ngdmSrcset.length() > 0) {
+                            ngdmSrcset.append(',');
+                        }
+                        template.appendTo(ngdmSrcset, "smartcrop=" + namedSmartCrop).append(' ')
+                            .append(StringUtils.remove(smartCropWidth.toString(), '"')).append('w');
                     }
                 }
-                srcSet = StringUtils.join(ngdmSrcsetArray, ',');
+                srcSet = ngdmSrcset.toString();
             }
-        } catch (IOException | JsonException e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | RuntimeException e) {
             LOGGER.warn("Couldn't generate srcset for remote asset");
         }
     }
@@ -928,9 +965,10 @@ public class ImageImpl implements Image {
         Asset asset;
         String resizeWidth = currentStyle.get(PN_DESIGN_RESIZE_WIDTH, String.class);
         if (StringUtils.isNotEmpty(inheritedFileReference)) {
-            final Resource assetResource = request.getResourceResolver().getResource(inheritedFileReference);
+            AssetResolutionCache assetResolutionCache = AssetResolutionCache.get(request);
+            final Resource assetResource = assetResolutionCache.getResource(inheritedFileReference);
             if (assetResource != null) {
-                asset = assetResource.adaptTo(Asset.class);
+                asset = assetResolutionCache.getAsset(inheritedFileReference);
                 EnhancedRendition original = null;
                 if (asset != null) {
                     original = new EnhancedRendition(asset.getOriginal());
@@ -973,26 +1011,26 @@ public class ImageImpl implements Image {
                 builder.withImageModifiers(modifiers);
             }
             src = builder.build();
+            ngdmSrcTemplate = builder.buildTemplate(URI_WIDTH_PLACEHOLDER);
             ngdmImage = true;
             hasContent = true;
-            if (clientBuilderFactory != null) {
-                client = clientBuilderFactory.newBuilder().build();
+            if (metadataService != null && (StringUtils.equals(smartCrop, SMART_CROP_AUTO)
+                    || StringUtils.equals(smartCropRendition, SMART_CROP_AUTO))) {
+                String assetId = NextGenDMImageURIBuilder.getAssetId(fileReference);
+                // started now, so that the metadata of all the images of the page is fetched concurrently while the page renders
+                remoteAssetMetadata = metadataService.fetchMetadata(nextGenDynamicMediaConfig, assetId);
             }
-            metadataDeliveryEndpoint = nextGenDynamicMediaConfig.getAssetMetadataPath();
-            @SuppressWarnings("resource")
-            Scanner scanner = new Scanner(fileReference);
-            scanner.useDelimiter("/");
-            String assetId = scanner.next();
-            metadataDeliveryEndpoint = metadataDeliveryEndpoint.replace(PATH_PLACEHOLDER_ASSET_ID, assetId);
         }
     }
 
-    @NotNull
+    @Nullable
     private String prepareNgdmSrcUriTemplate() {
-        // replace the value of the width URL parameter with the placeholder
-        srcUriTemplate = src.replaceFirst("width=\\d+", "width=" + URI_WIDTH_PLACEHOLDER_ENCODED);
-        String ret = src.replaceFirst("width=\\d+", "width=" + URI_WIDTH_PLACEHOLDER);
-        return ret;
+        if (ngdmSrcTemplate == null) {
+            return null;
+        }
+        // the value of the width URL parameter is the placeholder
+        srcUriTemplate = ngdmSrcTemplate.expand(URI_WIDTH_PLACEHOLDER_ENCODED);
+        return ngdmSrcTemplate.expand(URI_WIDTH_PLACEHOLDER);
     }
 
     public static boolean isNgdmImageReference(String fileReference) {
@@ -15,14 +15,13 @@
  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
 package com.adobexp.aem.core.components.internal.models;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Scanner;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.adobexp.aem.core.components.internal.helper.image.UriTemplate;
 import com.adobe.cq.ui.wcm.commons.config.NextGenDynamicMediaConfig;
 
 import static com.adobexp.aem.core.components.internal.models.ImageImpl.DEFAULT_NGDM_ASSET_WIDTH;
@@ -34,6 +33,8 @@ public class NextGenDMImageURIBuilder {
     private static final String PATH_PLACEHOLDER_FORMAT = "{format}";
     private static final String DEFAULT_NGDM_ASSET_EXTENSION = "jpg";
 
+    private static volatile UriTemplate deliveryPathTemplate;
+
     private NextGenDynamicMediaConfig config;
     private String fileReference;
     private String smartCropName;
@@ -95,12 +96,39 @@ public class NextGenDMImageURIBuilder {
         return this;
     }
 
+    /**
+     * Returns the asset id of a NextGen Dynamic Media file reference ({@code /urn:aaid:aem:...}/name.ext).
+     * @param fileReference - the file reference.
+     * @return the asset id, or {@code null} if the file reference is empty.
+     */
+    public static String getAssetId(String fileReference) {
+        String reference = StringUtils.stripStart(fileReference, "/");
+        if (StringUtils.isEmpty(reference)) {
+            return null;
+        }
+        return StringUtils.substringBefore(reference, "/");
+    }
+
     /**
      * Use this to create a NextGen Dynamic Media Image URI.
      * @return a uri.
      */
-    @SuppressWarnings("resource")
     public String build() {
+        return build(this.width > 0 ? Integer.toString(this.width) : null);
+    }
+
+    /**
+     * Use this to create a NextGen Dynamic Media Image URI template whose only variable is the width.
+     * @param widthVariable - the width variable.
+     * @return a uri template, or {@code null} if the fileReference or the NGDMConfig are invalid.
+     */
+    public UriTemplate buildTemplate(String widthVariable) {
+        String uri = build(this.width > 0 ? widthVariable : null);
+        return uri != null ? UriTemplate.compile(uri, widthVariable) : null;
+    }
+
+    @SuppressWarnings("resource")
+    private String build(String widthValue) {
         if(StringUtils.isNotEmpty(this.fileReference) && this.config != null) {
             Scanner scanner = new Scanner(this.fileReference);
             scanner.useDelimiter("/");
@@ -109,43 +137,45 @@ public class NextGenDMImageURIBuilder {
             scanner.useDelimiter("\\.");
             String assetName = scanner.hasNext() ? scanner.next() : assetId;
             String assetExtension = scanner.hasNext() ? scanner.next() : DEFAULT_NGDM_ASSET_EXTENSION;
-            String imageDeliveryBasePath = this.config.getImageDeliveryBasePath();
-            String imageDeliveryPath = imageDeliveryBasePath.replace(PATH_PLACEHOLDER_ASSET_ID, assetId);
-            imageDeliveryPath = imageDeliveryPath.replace(PATH_PLACEHOLDER_SEO_NAME, assetName);
-            imageDeliveryPath = imageDeliveryPath.replace(PATH_PLACEHOLDER_FORMAT, assetExtension);
             String repositoryId = this.config.getRepositoryId();
-            StringBuilder uriBuilder = new StringBuilder("https://" + repositoryId + imageDeliveryPath);
-            Map<String, String> params = new LinkedHashMap<>();
-            if(this.width > 0) {
-                params.put("width", Integer.toString(this.width));
+            StringBuilder uriBuilder = new StringBuilder("https://").append(repositoryId);
+            getDeliveryPathTemplate(this.config.getImageDeliveryBasePath()).appendTo(uriBuilder, assetId, assetName, assetExtension);
+            char separator = '?';
+            if(widthValue != null) {
+                uriBuilder.append(separator).append("width=").append(widthValue);
+                separator = '&';
             }
             if(this.height > 0) {
-                params.put("height", Integer.toString(this.height));
+                uriBuilder.append(separator).append("height=").append(this.height);
+                separator = '&';
             }
             if(this.preferWebp) {
-                params.put("preferwebp", "true");
+                uriBuilder.append(separator).append("preferwebp=true");
+                separator = '&';
             }
             if (StringUtils.isNotEmpty(this.smartCropName)) {
-                params.put("smartcrop", this.smartCropName);
-            }
-            if(params.size() > 0) {
-                uriBuilder.append("?");
-                for(Map.Entry<String, String> entry: params.entrySet()) {
-                    uriBuilder.append(entry.getKey() + "=" + entry.getValue());
-                    uriBuilder.append("&");
-                }
-                uriBuilder.deleteCharAt(uriBuilder.length() - 1);
+                uriBuilder.append(separator).append("smartcrop=").append(this.smartCropName);
             }
             if(StringUtils.isNotEmpty(this.modifiers)) {
-                if (this.modifiers.startsWith("&")) {
-                    uriBuilder.append(this.modifiers);
-                } else {
-                    uriBuilder.append("&" + this.modifiers);
+                if (!this.modifiers.startsWith("&")) {
+                    uriBuilder.append('&');
                 }
+                uriBuilder.append(this.modifiers);
             }
             return uriBuilder.toString();
         }
         LOGGER.info("Invalid fileReference or NGDMConfig. fileReference = {}", this.fileReference);
         return null;
     }
+
+    private static UriTemplate getDeliveryPathTemplate(String imageDeliveryBasePath) {
+        // the base path is a configuration value, so it is compiled again only when the configuration changes
+        UriTemplate template = deliveryPathTemplate;
+        if (template == null || !template.getTemplate().equals(imageDeliveryBasePath)) {
+            template = UriTemplate.compile(imageDeliveryBasePath, PATH_PLACEHOLDER_ASSET_ID, PATH_PLACEHOLDER_SEO_NAME,
+                PATH_PLACEHOLDER_FORMAT);
+            deliveryPathTemplate = template;
+        }
+        return template;
+    }
 }
@@ -19,6 +19,7 @@ package com.adobexp.aem.core.components.internal.models;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.util.EntityUtils;
 import org.jetbrains.annotations.NotNull;
@@ -32,11 +33,14 @@ public class NextGenDMSrcsetBuilderResponseHandler implements ResponseHandler<St
         //Get the status of the response
         String responseEntity = "";
         int status = response.getStatusLine().getStatusCode();
-        if (status == HttpStatus.SC_OK) {
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                responseEntity = EntityUtils.toString(entity);
-            }
+        HttpEntity entity = response.getEntity();
+        if (status != HttpStatus.SC_OK) {
+            // a failed request is not an asset without metadata
+            EntityUtils.consume(entity);
+            throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+        }
+        if (entity != null) {
+            responseEntity = EntityUtils.toString(entity);
         }
         return responseEntity;
     }
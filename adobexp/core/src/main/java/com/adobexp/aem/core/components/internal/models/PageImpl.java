@@ -54,6 +54,8 @@ import org.apache.sling.caconfig.ConfigurationResolver;
 import org.apache.sling.caconfig.resource.ConfigurationResourceResolver;
 import com.adobexp.aem.core.components.internal.LazyValue;
 import com.adobexp.aem.core.components.internal.Utils;
+import com.adobexp.aem.core.components.internal.services.page.HtmlPageItemsCache;
+import com.adobexp.aem.core.components.internal.services.page.PageResourceTypeIndex;
 import com.adobexp.aem.core.components.commons.link.LinkManager;
 import com.adobexp.aem.core.components.config.HtmlPageItemConfig;
 import com.adobexp.aem.core.components.config.HtmlPageItemsConfig;
@@ -183,6 +185,18 @@ public class PageImpl implements Page {
     @OSGiService
     private HtmlLibraryManager htmlLibraryManager;
 
+    /**
+     * The index of the resource types used to render the pages.
+     */
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private PageResourceTypeIndex pageResourceTypeIndex;
+
+    /**
+     * The cache of the items included in the pages of each configuration context.
+     */
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private HtmlPageItemsCache htmlPageItemsCache;
+
     /**
      * The ProductInfoProvider service.
      */
@@ -394,7 +408,9 @@ public class PageImpl implements Page {
     @JsonIgnore
     public Set<String> getComponentsResourceTypes() {
         if (resourceTypes == null) {
-            resourceTypes = Utils.getPageResourceTypes(currentPage, request, modelFactory);
+            resourceTypes = pageResourceTypeIndex != null
+                    ? pageResourceTypeIndex.getResourceTypes(currentPage, request, modelFactory)
+                    : Utils.getPageResourceTypes(currentPage, request, modelFactory);
         }
         return resourceTypes;
     }
@@ -548,33 +564,41 @@ public class PageImpl implements Page {
     @Override
     public @NotNull List<HtmlPageItem> getHtmlPageItems() {
         if (htmlPageItems == null) {
-            htmlPageItems = new LinkedList<>();
-            ConfigurationBuilder configurationBuilder = configurationResolver.get(resource);
-            HtmlPageItemsConfig config = configurationBuilder.as(HtmlPageItemsConfig.class);
-            for (HtmlPageItemConfig itemConfig : config.items()) {
-                HtmlPageItem item = new HtmlPageItemImpl(StringUtils.defaultString(config.prefixPath()), itemConfig);
-                if (item.getElement() != null) {
-                    htmlPageItems.add(item);
-                }
+            htmlPageItems = htmlPageItemsCache != null
+                    ? htmlPageItemsCache.getHtmlPageItems(resource, configurationResourceResolver, this::resolveHtmlPageItems)
+                    : resolveHtmlPageItems();
+        }
+        return htmlPageItems;
+    }
+
+    @NotNull
+    private List<HtmlPageItem> resolveHtmlPageItems() {
+        List<HtmlPageItem> items = new LinkedList<>();
+        ConfigurationBuilder configurationBuilder = configurationResolver.get(resource);
+        HtmlPageItemsConfig config = configurationBuilder.as(HtmlPageItemsConfig.class);
+        for (HtmlPageItemConfig itemConfig : config.items()) {
+            HtmlPageItem item = new HtmlPageItemImpl(StringUtils.defaultString(config.prefixPath()), itemConfig);
+            if (item.getElement() != null) {
+                items.add(item);
             }
-            // Support the former node structure: see
-            // com.adobe.cq.wcm.core.components.config.HtmlPageItemsConfig
-            if (htmlPageItems.isEmpty()) {
-                Resource configResource = configurationResourceResolver.getResource(resource, "sling:configs",
-                        HtmlPageItemsConfig.class.getName());
-                if (configResource != null) {
-                    ValueMap properties = configResource.getValueMap();
-                    for (Resource child : configResource.getChildren()) {
-                        HtmlPageItem item = new HtmlPageItemImpl(
-                                properties.get(HtmlPageItemsConfig.PN_PREFIX_PATH, StringUtils.EMPTY), child);
-                        if (item.getElement() != null) {
-                            htmlPageItems.add(item);
-                        }
+        }
+        // Support the former node structure: see
+        // com.adobe.cq.wcm.core.components.config.HtmlPageItemsConfig
+        if (items.isEmpty()) {
+            Resource configResource = configurationResourceResolver.getResource(resource, "sling:configs",
+                    HtmlPageItemsConfig.class.getName());
+            if (configResource != null) {
+                ValueMap properties = configResource.getValueMap();
+                for (Resource child : configResource.getChildren()) {
+                    HtmlPageItem item = new HtmlPageItemImpl(
+                            properties.get(HtmlPageItemsConfig.PN_PREFIX_PATH, StringUtils.EMPTY), child);
+                    if (item.getElement() != null) {
+                        items.add(item);
                     }
                 }
             }
         }
-        return htmlPageItems;
+        return items;
     }
 
     @Override
@@ -0,0 +1,178 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.models;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceWrapper;
+import org.apache.sling.models.factory.ModelFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.cq.wcm.api.WCMMode;
+import com.day.cq.wcm.api.components.ComponentContext;
+
+/**
+ * Memoizes the models created during a request, so that a model asked for several times while rendering a page (e.g. by HTL and by
+ * another model) is created once.
+ * <p>
+ * Models are keyed by the path and the type of the resource they are created from, the model class and the selectors of the request.
+ * Models created from a {@link ResourceWrapper} (e.g. a resource with inherited or overridden properties) are only shared with calls
+ * passing the same wrapper instance, since wrappers with the same path can expose different properties. The {@link WCMMode} and the
+ * {@link ComponentContext} of the request are part of the key as well: every include (e.g. {@code data-sly-resource}, with its
+ * {@code wcmmode} or {@code requestAttributes} options) gets its own component context, so a model is never shared between two includes
+ * whose request state may differ. Missing models are memoized as well; models whose creation fails are not.
+ */
+public final class RequestModelCache {
+
+    private static final String REQUEST_ATTRIBUTE = RequestModelCache.class.getName();
+    private static final Object NULL = new Object();
+
+    private final Map<Key, Object> models = new HashMap<>();
+    private int lookups;
+    private int hits;
+
+    private RequestModelCache() {
+    }
+
+    /**
+     * Returns the model cache of a request.
+     *
+     * @param request the request
+     * @return the model cache
+     */
+    @NotNull
+    public static RequestModelCache get(@NotNull SlingHttpServletRequest request) {
+        Object cache = request.getAttribute(REQUEST_ATTRIBUTE);
+        if (cache instanceof RequestModelCache) {
+            return (RequestModelCache) cache;
+        }
+        RequestModelCache newCache = new RequestModelCache();
+        request.setAttribute(REQUEST_ATTRIBUTE, newCache);
+        return newCache;
+    }
+
+    /**
+     * Returns the model cache of a request, if one was created.
+     *
+     * @param request the request
+     * @return the model cache, or {@code null}
+     */
+    @Nullable
+    static RequestModelCache peek(@NotNull SlingHttpServletRequest request) {
+        Object cache = request.getAttribute(REQUEST_ATTRIBUTE);
+        return cache instanceof RequestModelCache ? (RequestModelCache) cache : null;
+    }
+
+    /**
+     * Memoized {@link ModelFactory#getModelFromWrappedRequest(SlingHttpServletRequest, Resource, Class)}.
+     *
+     * @param modelFactory the model factory
+     * @param request      the request
+     * @param resource     the resource to create the model from
+     * @param type         the model class
+     * @param <T>          the model type
+     * @return the model, or {@code null} if it cannot be created
+     */
+    @Nullable
+    public static <T> T getModelFromWrappedRequest(@NotNull ModelFactory modelFactory, @NotNull SlingHttpServletRequest request,
+                                                   @NotNull Resource resource, @NotNull Class<T> type) {
+        return get(request).getModel(request, resource, type,
+                () -> modelFactory.getModelFromWrappedRequest(request, resource, type));
+    }
+
+    /**
+     * Returns the memoized model of a resource, creating it if needed.
+     *
+     * @param request  the request
+     * @param resource the resource the model is created from
+     * @param type     the model class
+     * @param factory  creates the model; it may return {@code null} or throw, in which case nothing is memoized for a throw
+     * @param <T>      the model type
+     * @return the model, or {@code null} if it cannot be created
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> T getModel(@NotNull SlingHttpServletRequest request, @NotNull Resource resource, @NotNull Class<?> type,
+                          @NotNull Supplier<T> factory) {
+        lookups++;
+        Key key = new Key(request, resource, type);
+        Object model = models.get(key);
+        if (model != null) {
+            hits++;
+            return model == NULL ? null : (T) model;
+        }
+        T created = factory.get();
+        models.put(key, created != null ? created : NULL);
+        return created;
+    }
+
+    int getLookups() {
+        return lookups;
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    private static final class Key {
+
+        private final String path;
+        private final String resourceType;
+        private final String type;
+        private final String selectors;
+        private final Resource wrapper;
+        private final WCMMode wcmMode;
+        private final Object componentContext;
+        private final int hashCode;
+
+        private Key(@NotNull SlingHttpServletRequest request, @NotNull Resource resource, @NotNull Class<?> type) {
+            this.path = resource.getPath();
+            this.resourceType = resource.getResourceType();
+            this.type = type.getName();
+            this.selectors = request.getRequestPathInfo().getSelectorString();
+            this.wrapper = resource instanceof ResourceWrapper ? resource : null;
+            this.wcmMode = WCMMode.fromRequest(request);
+            this.componentContext = request.getAttribute(ComponentContext.CONTEXT_ATTR_NAME);
+            this.hashCode = Objects.hash(path, resourceType, this.type, selectors, System.identityHashCode(wrapper), wcmMode,
+                    System.identityHashCode(componentContext));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return wrapper == other.wrapper && componentContext == other.componentContext && wcmMode == other.wcmMode
+                    && path.equals(other.path) && Objects.equals(resourceType, other.resourceType) && type.equals(other.type)
+                    && Objects.equals(selectors, other.selectors);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
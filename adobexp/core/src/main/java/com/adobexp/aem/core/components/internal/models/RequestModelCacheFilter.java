@@ -0,0 +1,86 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.models;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Histogram;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.engine.EngineConstants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Records how many model creations the {@link RequestModelCache} of each request saved.
+ */
+@Component(service = Filter.class,
+           property = {
+                   EngineConstants.SLING_FILTER_SCOPE + "=" + EngineConstants.FILTER_SCOPE_REQUEST,
+           })
+public class RequestModelCacheFilter implements Filter {
+
+    private static final String BASENAME = "com.adobexp.aem.core.components.internal.models.RequestModelCache:";
+
+    @Reference
+    MetricsService metricsService;
+
+    // how many models were asked for
+    private Counter lookups;
+    // how many models were served from the cache
+    private Counter hits;
+    // how many models were served from the cache, per request
+    private Histogram hitsPerRequest;
+
+    @Activate
+    public void activate() {
+        lookups = metricsService.counter(BASENAME + "lookups");
+        hits = metricsService.counter(BASENAME + "hits");
+        hitsPerRequest = metricsService.histogram(BASENAME + "hits-per-request");
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain filterChain) throws IOException, ServletException {
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            RequestModelCache cache = RequestModelCache.peek((SlingHttpServletRequest) request);
+            if (cache != null && cache.getLookups() > 0) {
+                lookups.increment(cache.getLookups());
+                hits.increment(cache.getHits());
+                hitsPerRequest.update(cache.getHits());
+            }
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -46,6 +46,7 @@ import com.adobexp.aem.core.components.commons.link.Link;
 import com.adobexp.aem.core.components.internal.Heading;
 import com.adobexp.aem.core.components.commons.link.LinkManager;
 import com.adobexp.aem.core.components.internal.Utils;
+import com.adobexp.aem.core.components.internal.resource.AssetResolutionCache;
 import com.adobexp.aem.core.components.models.Image;
 import com.adobexp.aem.core.components.models.ListItem;
 import com.adobexp.aem.core.components.models.Teaser;
@@ -340,7 +341,7 @@ public class TeaserImpl extends AbstractImageDelegatingModel implements Teaser {
     public String getImagePath() {
         if (imageSrc == null) {
             this.imageSrc = Optional.ofNullable(this.getImageResource())
-                .map(imageResource -> this.modelFactory.getModelFromWrappedRequest(this.request, imageResource, Image.class))
+                .map(imageResource -> RequestModelCache.getModelFromWrappedRequest(this.modelFactory, this.request, imageResource, Image.class))
                 .map(Image::getSrc)
                 .orElse(null);
         }
@@ -441,9 +442,11 @@ public class TeaserImpl extends AbstractImageDelegatingModel implements Teaser {
     protected boolean hasImage() {
         // As Teaser v2 supports inheritance from the featured image of the page, the current resource is wrapped and
         // augmented with the inherited properties and child resources of the featured image.
-        Resource wrappedResource = Utils.getWrappedImageResourceWithInheritance(resource, linkManager, currentStyle, currentPage);
+        AssetResolutionCache assetResolutionCache = AssetResolutionCache.get(request);
+        Resource wrappedResource = Utils.getWrappedImageResourceWithInheritance(resource, linkManager, currentStyle, currentPage,
+                assetResolutionCache);
         return Optional.ofNullable(wrappedResource.getValueMap().get(DownloadResource.PN_REFERENCE, String.class))
-                .map(request.getResourceResolver()::getResource)
+                .map(assetResolutionCache::getResource)
                 .orElseGet(() -> wrappedResource.getChild(DownloadResource.NN_FILE)) != null ||
                 Optional.ofNullable(wrappedResource.getValueMap().get(DownloadResource.PN_REFERENCE, String.class)).filter(ImageImpl::isNgdmImageReference).isPresent();
     }
@@ -0,0 +1,177 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.resource;
+
+import java.awt.Dimension;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.cq.dam.api.Asset;
+
+/**
+ * Memoizes the resources and assets resolved while rendering a request, so that the models and helpers rendering the same image (e.g.
+ * an image, the teaser delegating to it and the asset delivery helper) resolve and adapt its file reference only once.
+ * <p>
+ * The cache is stored as a request attribute by the {@link AssetResolutionCacheFilter}, so the resolutions are memoized for the
+ * duration of the request only; outside of a filtered request every {@link #get(SlingHttpServletRequest)} returns a new, empty cache.
+ */
+public final class AssetResolutionCache {
+
+    private static final String REQUEST_ATTRIBUTE = AssetResolutionCache.class.getName();
+
+    private final ResourceResolver resolver;
+    private final Map<String, Optional<Resource>> resources = new HashMap<>();
+    private final Map<String, Optional<Asset>> assets = new HashMap<>();
+    private final Map<String, Optional<Dimension>> dimensions = new HashMap<>();
+    private int lookups;
+    private int hits;
+
+    private AssetResolutionCache(@NotNull ResourceResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Returns the cache of a request.
+     *
+     * @param request the current request
+     * @return the cache
+     */
+    @NotNull
+    public static AssetResolutionCache get(@NotNull SlingHttpServletRequest request) {
+        Object cache = request.getAttribute(REQUEST_ATTRIBUTE);
+        return cache instanceof AssetResolutionCache ? (AssetResolutionCache) cache : create(request.getResourceResolver());
+    }
+
+    /**
+     * Creates a cache that is not shared with any other call, for code running outside of a request.
+     *
+     * @param resolver the resource resolver
+     * @return the cache
+     */
+    @NotNull
+    public static AssetResolutionCache create(@NotNull ResourceResolver resolver) {
+        return new AssetResolutionCache(resolver);
+    }
+
+    /**
+     * Opens the cache of a request.
+     *
+     * @param request the request
+     * @return the cache, or {@code null} if a cache was already opened for the request (e.g. by the request including this one)
+     */
+    @Nullable
+    static AssetResolutionCache open(@NotNull SlingHttpServletRequest request) {
+        if (request.getAttribute(REQUEST_ATTRIBUTE) instanceof AssetResolutionCache) {
+            return null;
+        }
+        AssetResolutionCache cache = new AssetResolutionCache(request.getResourceResolver());
+        request.setAttribute(REQUEST_ATTRIBUTE, cache);
+        return cache;
+    }
+
+    /**
+     * Closes the cache of a request.
+     *
+     * @param request the request
+     */
+    static void close(@NotNull SlingHttpServletRequest request) {
+        request.removeAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Resolves a resource.
+     *
+     * @param path the path of the resource
+     * @return the resource, or {@code null} if it doesn't exist
+     */
+    @Nullable
+    public synchronized Resource getResource(@Nullable String path) {
+        if (StringUtils.isEmpty(path)) {
+            return null;
+        }
+        lookups++;
+        Optional<Resource> resource = resources.get(path);
+        if (resource != null) {
+            hits++;
+            return resource.orElse(null);
+        }
+        resource = Optional.ofNullable(resolver.getResource(path));
+        resources.put(path, resource);
+        return resource.orElse(null);
+    }
+
+    /**
+     * Resolves an asset.
+     *
+     * @param path the path of the asset
+     * @return the asset, or {@code null} if the resource doesn't exist or is not an asset
+     */
+    @Nullable
+    public synchronized Asset getAsset(@Nullable String path) {
+        if (StringUtils.isEmpty(path)) {
+            return null;
+        }
+        Optional<Asset> asset = assets.get(path);
+        if (asset != null) {
+            lookups++;
+            hits++;
+            return asset.orElse(null);
+        }
+        asset = Optional.ofNullable(getResource(path)).map(resource -> resource.adaptTo(Asset.class));
+        assets.put(path, asset);
+        return asset.orElse(null);
+    }
+
+    /**
+     * Returns the dimensions of a rendition, probing them only the first time they are asked for.
+     *
+     * @param path  the path of the rendition
+     * @param probe determines the dimensions of the rendition
+     * @return the dimensions, or {@code null} if they cannot be determined
+     */
+    @Nullable
+    public synchronized Dimension getDimension(@NotNull String path, @NotNull Supplier<Dimension> probe) {
+        Optional<Dimension> dimension = dimensions.get(path);
+        if (dimension == null) {
+            dimension = Optional.ofNullable(probe.get());
+            dimensions.put(path, dimension);
+        }
+        return dimension.orElse(null);
+    }
+
+    /**
+     * @return how many resources and assets were looked up
+     */
+    synchronized int getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return how many resources and assets were served from the cache
+     */
+    synchronized int getHits() {
+        return hits;
+    }
+}
@@ -0,0 +1,72 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.services.ngdm;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+@Component(service = NextGenDMMetadataMetrics.class)
+public class NextGenDMMetadataMetrics {
+
+    private static final String BASENAME = "com.adobexp.aem.core.components.internal.services.ngdm.NextGenDMMetadataService:";
+
+    @Reference
+    MetricsService metricsService;
+
+    // how often the metadata was served from the cache
+    private Counter cacheHits;
+    // how often the metadata was served from the cache while it was being refreshed
+    private Counter cacheStaleHits;
+    // how often the metadata had to be fetched before it could be served
+    private Counter cacheMisses;
+    // how often the metadata could not be fetched
+    private Counter fetchFailures;
+    // the duration of the metadata requests
+    private Timer fetchDuration;
+
+    @Activate
+    public void activate() {
+        cacheHits = metricsService.counter(BASENAME + "cache-hits");
+        cacheStaleHits = metricsService.counter(BASENAME + "cache-stale-hits");
+        cacheMisses = metricsService.counter(BASENAME + "cache-misses");
+        fetchFailures = metricsService.counter(BASENAME + "fetch-failures");
+        fetchDuration = metricsService.timer(BASENAME + "fetch-duration");
+    }
+
+    public void markCacheHit() {
+        cacheHits.increment();
+    }
+
+    public void markCacheStaleHit() {
+        cacheStaleHits.increment();
+    }
+
+    public void markCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    public void markFetchFailure() {
+        fetchFailures.increment();
+    }
+
+    public Timer.Context startFetchDurationRecording() {
+        return fetchDuration.time();
+    }
+}
@@ -0,0 +1,354 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.services.ngdm;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.osgi.services.HttpClientBuilderFactory;
+import org.apache.sling.commons.metrics.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.cq.ui.wcm.commons.config.NextGenDynamicMediaConfig;
+import com.adobexp.aem.core.components.internal.models.NextGenDMSrcsetBuilderResponseHandler;
+
+/**
+ * Fetches the metadata of Next Generation Dynamic Media assets (e.g. their smart crops) through a single pooled, keep-alive HTTP
+ * client. The metadata is fetched asynchronously, so that the image models of a page can start their requests when they are
+ * initialised and collect the results when they are rendered.
+ * <p>
+ * The fetched metadata is cached for a configurable time; expired metadata keeps being served while it is refreshed in the
+ * background, and failures are cached for a shorter time, so that an unavailable repository doesn't slow down every render.
+ */
+@Designate(ocd = NextGenDMMetadataService.Config.class)
+@Component(service = NextGenDMMetadataService.class)
+public class NextGenDMMetadataService {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Next Generation Dynamic Media Metadata Service",
+            description = "Fetches the metadata of Next Generation Dynamic Media assets."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Maximum connections",
+                description = "The maximum number of pooled connections."
+        )
+        int maxConnections() default 50;
+
+        @AttributeDefinition(
+                name = "Maximum connections per route",
+                description = "The maximum number of pooled connections to the same repository."
+        )
+        int maxConnectionsPerRoute() default 20;
+
+        @AttributeDefinition(
+                name = "Connect timeout",
+                description = "Time, in milliseconds, to wait for a connection to be established."
+        )
+        int connectTimeout() default 2000;
+
+        @AttributeDefinition(
+                name = "Socket timeout",
+                description = "Time, in milliseconds, to wait for data once the connection is established."
+        )
+        int socketTimeout() default 3000;
+
+        @AttributeDefinition(
+                name = "Connection request timeout",
+                description = "Time, in milliseconds, to wait for a connection from the pool."
+        )
+        int connectionRequestTimeout() default 1000;
+
+        @AttributeDefinition(
+                name = "Threads",
+                description = "The number of threads fetching metadata concurrently."
+        )
+        int threads() default 8;
+
+        @AttributeDefinition(
+                name = "Render timeout",
+                description = "Time, in milliseconds, a rendering image waits for its metadata."
+        )
+        long renderTimeout() default 5000;
+
+        @AttributeDefinition(
+                name = "Cache size",
+                description = "The maximum number of assets whose metadata is cached. 0 disables the cache."
+        )
+        int cacheSize() default 1000;
+
+        @AttributeDefinition(
+                name = "Cache TTL",
+                description = "Time, in seconds, the metadata of an asset is cached."
+        )
+        int cacheTtl() default 300;
+
+        @AttributeDefinition(
+                name = "Stale while revalidate",
+                description = "Time, in seconds, expired metadata keeps being served while it is refreshed in the background."
+        )
+        int cacheStaleWhileRevalidate() default 3600;
+
+        @AttributeDefinition(
+                name = "Failure TTL",
+                description = "Time, in seconds, a failure to fetch the metadata of an asset is cached."
+        )
+        int cacheFailureTtl() default 30;
+    }
+
+    static final String PATH_PLACEHOLDER_ASSET_ID = "{asset-id}";
+    private static final Logger LOG = LoggerFactory.getLogger(NextGenDMMetadataService.class);
+    private static final String HEADER_EXPERIMENTAL = "X-Adobe-Accept-Experimental";
+
+    @Reference
+    private HttpClientBuilderFactory clientBuilderFactory;
+
+    @Reference
+    private NextGenDMMetadataMetrics metrics;
+
+    // replaced when the configuration is modified, while images are rendered
+    private volatile CloseableHttpClient client;
+    private volatile ExecutorService executor;
+    private volatile long renderTimeout;
+    private int cacheSize;
+    private long cacheTtl;
+    private long cacheStaleWhileRevalidate;
+    private long cacheFailureTtl;
+
+    // endpoint -> metadata
+    private final LinkedHashMap<String, CachedMetadata> cache = new LinkedHashMap<String, CachedMetadata>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedMetadata> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        deactivate();
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(Math.max(config.maxConnections(), 1));
+        connectionManager.setDefaultMaxPerRoute(Math.max(config.maxConnectionsPerRoute(), 1));
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.connectTimeout())
+                .setSocketTimeout(config.socketTimeout())
+                .setConnectionRequestTimeout(config.connectionRequestTimeout())
+                .build();
+        client = clientBuilderFactory.newBuilder()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .build();
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(config.threads(), 1), runnable -> {
+            Thread thread = new Thread(runnable, "ngdm-metadata-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        renderTimeout = config.renderTimeout();
+        synchronized (cache) {
+            cacheSize = Math.max(config.cacheSize(), 0);
+            cacheTtl = TimeUnit.SECONDS.toMillis(Math.max(config.cacheTtl(), 0));
+            cacheStaleWhileRevalidate = TimeUnit.SECONDS.toMillis(Math.max(config.cacheStaleWhileRevalidate(), 0));
+            cacheFailureTtl = TimeUnit.SECONDS.toMillis(Math.max(config.cacheFailureTtl(), 0));
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ExecutorService currentExecutor = executor;
+        if (currentExecutor != null) {
+            executor = null;
+            currentExecutor.shutdownNow();
+        }
+        CloseableHttpClient currentClient = client;
+        if (currentClient != null) {
+            client = null;
+            try {
+                currentClient.close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close the Next Generation Dynamic Media HTTP client.", e);
+            }
+        }
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the time a rendering image should wait for its metadata.
+     *
+     * @return the timeout, in milliseconds
+     */
+    public long getRenderTimeout() {
+        return renderTimeout;
+    }
+
+    /**
+     * Fetches the metadata of an asset, or returns its cached metadata. The returned future is shared by all the callers asking for the
+     * same asset and must not be cancelled.
+     *
+     * @param config  the Next Generation Dynamic Media configuration
+     * @param assetId the asset id
+     * @return the metadata, completed with {@code null} if the asset has no metadata, or completed exceptionally if the metadata cannot
+     * be fetched
+     */
+    @NotNull
+    public CompletableFuture<JsonObject> fetchMetadata(@NotNull NextGenDynamicMediaConfig config, @NotNull String assetId) {
+        String endpoint = "https://" + config.getRepositoryId() +
+                StringUtils.replace(config.getAssetMetadataPath(), PATH_PLACEHOLDER_ASSET_ID, assetId);
+        long now = System.currentTimeMillis();
+        CachedMetadata refreshed = null;
+        CompletableFuture<JsonObject> metadata;
+        synchronized (cache) {
+            CachedMetadata cached = cache.get(endpoint);
+            if (cached != null && now < cached.expiresAt) {
+                metrics.markCacheHit();
+                return cached.metadata;
+            }
+            if (cached != null && cached.isRevalidatable(now, cacheStaleWhileRevalidate)) {
+                metrics.markCacheStaleHit();
+                if (!cached.refreshing && now >= cached.retryAt) {
+                    cached.refreshing = true;
+                    refreshed = cached;
+                }
+                metadata = cached.metadata;
+            } else {
+                metrics.markCacheMiss();
+                metadata = fetchAsync(endpoint);
+                if (cacheSize > 0) {
+                    CachedMetadata entry = new CachedMetadata(metadata);
+                    cache.put(endpoint, entry);
+                    metadata.whenComplete((value, error) -> expire(entry, error == null ? cacheTtl : cacheFailureTtl));
+                }
+                return metadata;
+            }
+        }
+        CachedMetadata stale = refreshed;
+        if (stale != null) {
+            fetchAsync(endpoint).whenComplete((value, error) -> {
+                synchronized (cache) {
+                    if (error == null) {
+                        CachedMetadata fresh = new CachedMetadata(CompletableFuture.completedFuture(value));
+                        fresh.expiresAt = System.currentTimeMillis() + cacheTtl;
+                        cache.put(endpoint, fresh);
+                    } else {
+                        // keep serving the stale metadata, and try again later
+                        stale.refreshing = false;
+                        stale.retryAt = System.currentTimeMillis() + cacheFailureTtl;
+                    }
+                }
+            });
+        }
+        return metadata;
+    }
+
+    private void expire(@NotNull CachedMetadata entry, long ttl) {
+        synchronized (cache) {
+            entry.expiresAt = System.currentTimeMillis() + ttl;
+        }
+    }
+
+    @NotNull
+    private CompletableFuture<JsonObject> fetchAsync(@NotNull String endpoint) {
+        ExecutorService currentExecutor = executor;
+        CloseableHttpClient currentClient = client;
+        CompletableFuture<JsonObject> failed = new CompletableFuture<>();
+        if (currentExecutor == null || currentClient == null) {
+            failed.completeExceptionally(new IllegalStateException("The metadata service is not active"));
+            return failed;
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> fetch(currentClient, endpoint), currentExecutor);
+        } catch (RejectedExecutionException e) {
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private JsonObject fetch(@NotNull CloseableHttpClient client, @NotNull String endpoint) {
+        HttpGet get = new HttpGet(endpoint);
+        get.setHeader(HEADER_EXPERIMENTAL, "1");
+        Timer.Context fetchDuration = metrics.startFetchDurationRecording();
+        try {
+            String response = client.execute(get, new NextGenDMSrcsetBuilderResponseHandler());
+            if (StringUtils.isEmpty(response)) {
+                return null;
+            }
+            try (JsonReader jsonReader = Json.createReader(new StringReader(response))) {
+                return jsonReader.readObject();
+            }
+        } catch (IOException | JsonException e) {
+            metrics.markFetchFailure();
+            LOG.debug("Unable to fetch the metadata from {}.", endpoint, e);
+            throw new CompletionException(e);
+        } finally {
+            fetchDuration.stop();
+        }
+    }
+
+    /**
+     * The cached metadata of an asset. The fields are guarded by the cache's lock.
+     */
+    private static final class CachedMetadata {
+
+        private final CompletableFuture<JsonObject> metadata;
+        // the metadata is in flight until it is completed
+        private long expiresAt = Long.MAX_VALUE;
+        private long retryAt;
+        private boolean refreshing;
+
+        CachedMetadata(@NotNull CompletableFuture<JsonObject> metadata) {
+            this.metadata = metadata;
+        }
+
+        boolean isRevalidatable(long now, long staleWhileRevalidate) {
+            return metadata.isDone() && !metadata.isCompletedExceptionally() && now < expiresAt + staleWhileRevalidate;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.services.page;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.caconfig.resource.ConfigurationResourceResolver;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import com.adobexp.aem.core.components.config.HtmlPageItemsConfig;
+import com.adobexp.aem.core.components.models.HtmlPageItem;
+
+/**
+ * Caches the items of the {@link HtmlPageItemsConfig} context-aware configuration, which are the same for all the pages of a
+ * configuration context.
+ * <p>
+ * Entries are keyed by the context paths of a resource and the configurations they reference, so that a resource moved to another
+ * context, or a context referencing another configuration, doesn't read a stale entry. The whole cache is invalidated when a
+ * configuration changes, on this or on another cluster node.
+ */
+@Designate(ocd = HtmlPageItemsCache.Config.class)
+@Component(
+        service = {HtmlPageItemsCache.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/conf",
+                ResourceChangeListener.PATHS + "=/apps/conf",
+                ResourceChangeListener.PATHS + "=/libs/conf",
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+public class HtmlPageItemsCache implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final String PN_CONFIG_REF = "sling:configRef";
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Html Page Items Cache",
+            description = "Caches the items included in the pages of each context-aware configuration context."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Cache size",
+                description = "The maximum number of cached configuration contexts. 0 disables the cache."
+        )
+        int cacheSize() default 1000;
+    }
+
+    private int cacheSize;
+
+    // incremented on each invalidation, so that items resolved before an invalidation are not cached after it
+    private long generation;
+
+    // context paths and configuration references -> items
+    private final LinkedHashMap<String, List<HtmlPageItem>> cache = new LinkedHashMap<String, List<HtmlPageItem>>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<HtmlPageItem>> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        synchronized (cache) {
+            cacheSize = Math.max(config.cacheSize(), 0);
+            cache.clear();
+            generation++;
+        }
+    }
+
+    /**
+     * Returns the items to include in a page, resolving them if needed.
+     *
+     * @param resource                      the page content resource
+     * @param configurationResourceResolver the configuration resource resolver, used to look up the configuration context
+     * @param resolver                      resolves the items of the resource's configuration
+     * @return the items, which cannot be modified
+     */
+    @NotNull
+    public List<HtmlPageItem> getHtmlPageItems(@NotNull Resource resource,
+                                               @NotNull ConfigurationResourceResolver configurationResourceResolver,
+                                               @NotNull Supplier<List<HtmlPageItem>> resolver) {
+        String key = getKey(resource, configurationResourceResolver);
+        long resolvedGeneration;
+        synchronized (cache) {
+            List<HtmlPageItem> items = cache.get(key);
+            if (items != null) {
+                return items;
+            }
+            resolvedGeneration = generation;
+        }
+        List<HtmlPageItem> items = new ArrayList<>();
+        for (HtmlPageItem item : resolver.get()) {
+            items.add(new ResolvedHtmlPageItem(item));
+        }
+        items = Collections.unmodifiableList(items);
+        synchronized (cache) {
+            if (cacheSize > 0 && resolvedGeneration == generation) {
+                cache.put(key, items);
+            }
+        }
+        return items;
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        synchronized (cache) {
+            cache.clear();
+            generation++;
+        }
+    }
+
+    private static String getKey(@NotNull Resource resource, @NotNull ConfigurationResourceResolver configurationResourceResolver) {
+        ResourceResolver resourceResolver = resource.getResourceResolver();
+        StringBuilder key = new StringBuilder();
+        for (String contextPath : configurationResourceResolver.getAllContextPaths(resource)) {
+            key.append(contextPath).append('=');
+            Resource contextResource = resourceResolver.getResource(contextPath);
+            if (contextResource != null) {
+                key.append(contextResource.getValueMap().get(PN_CONFIG_REF, ""));
+            }
+            key.append('\n');
+        }
+        return key.toString();
+    }
+
+    /**
+     * An item whose element, location and attributes are resolved once, so that it doesn't hold on to the resource or the
+     * configuration it was read from.
+     */
+    private static final class ResolvedHtmlPageItem implements HtmlPageItem {
+
+        private final Element element;
+        private final Location location;
+        private final Map<String, Object> attributes;
+
+        private ResolvedHtmlPageItem(@NotNull HtmlPageItem item) {
+            this.element = item.getElement();
+            this.location = item.getLocation();
+            Map<String, Object> itemAttributes = item.getAttributes();
+            this.attributes = itemAttributes != null
+                    ? Collections.unmodifiableMap(new LinkedHashMap<>(itemAttributes))
+                    : Collections.emptyMap();
+        }
+
+        @Override
+        public Element getElement() {
+            return element;
+        }
+
+        @Override
+        public Location getLocation() {
+            return location;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+    }
+}
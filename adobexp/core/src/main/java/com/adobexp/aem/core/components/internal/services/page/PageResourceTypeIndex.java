@@ -0,0 +1,181 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.services.page;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.models.factory.ModelFactory;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import com.adobexp.aem.core.components.internal.Utils;
+import com.day.cq.wcm.api.NameConstants;
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.Template;
+import com.day.cq.wcm.foundation.AllowedComponentList;
+
+/**
+ * Indexes the resource types of the components used to render a page, i.e. the components of the page, of its template and of the
+ * experience fragments embedded in either (see {@link Utils#getPageResourceTypes(Page, SlingHttpServletRequest, ModelFactory)}).
+ * <p>
+ * Entries are validated against the last modification dates of the page, of its template structure and of its experience fragments
+ * when they are read, so changes made on any cluster node are picked up without listening to resource changes.
+ * <p>
+ * Since the components read depend on the permissions of the user rendering the page, entries are indexed by user as well as by page.
+ */
+@Designate(ocd = PageResourceTypeIndex.Config.class)
+@Component(service = PageResourceTypeIndex.class)
+public class PageResourceTypeIndex {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Page Resource Type Index",
+            description = "Indexes the resource types of the components used to render a page."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Index size",
+                description = "The maximum number of indexed pages. 0 disables the index."
+        )
+        int cacheSize() default 5000;
+    }
+
+    private int cacheSize;
+
+    // user ID and page path -> resource types
+    private final LinkedHashMap<String, IndexedPage> cache = new LinkedHashMap<String, IndexedPage>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IndexedPage> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        synchronized (cache) {
+            cacheSize = Math.max(config.cacheSize(), 0);
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the resource types of the components used to render a page, indexing them if needed.
+     *
+     * @param page         the page
+     * @param request      the current request
+     * @param modelFactory the model factory
+     * @return the resource types
+     */
+    @NotNull
+    public Set<String> getResourceTypes(@NotNull Page page, @NotNull SlingHttpServletRequest request, @NotNull ModelFactory modelFactory) {
+        ResourceResolver resolver = request.getResourceResolver();
+        String templatePath = getTemplatePath(page);
+        String key = resolver.getUserID() + '\n' + page.getPath();
+        IndexedPage indexedPage;
+        synchronized (cache) {
+            indexedPage = cache.get(key);
+        }
+        if (indexedPage != null && Arrays.equals(indexedPage.lastModified,
+                getLastModified(resolver, page, templatePath, indexedPage.fragmentPaths))) {
+            return indexedPage.resourceTypes;
+        }
+
+        Set<String> fragmentPaths = new LinkedHashSet<>();
+        Set<String> resourceTypes = Collections.unmodifiableSet(Utils.getPageResourceTypes(page, request, modelFactory, fragmentPaths));
+        String[] fragments = fragmentPaths.toArray(new String[0]);
+        indexedPage = new IndexedPage(resourceTypes, fragments, getLastModified(resolver, page, templatePath, fragments));
+        synchronized (cache) {
+            if (cacheSize > 0) {
+                cache.put(key, indexedPage);
+            }
+        }
+        return resourceTypes;
+    }
+
+    private static String getTemplatePath(@NotNull Page page) {
+        Template template = page.getTemplate();
+        return template != null ? template.getPath() + AllowedComponentList.STRUCTURE_JCR_CONTENT : null;
+    }
+
+    /**
+     * Returns the last modification dates of a page, of its template structure and of its experience fragments.
+     */
+    private static long[] getLastModified(@NotNull ResourceResolver resolver, @NotNull Page page, String templatePath,
+                                          @NotNull String[] fragmentPaths) {
+        long[] lastModified = new long[fragmentPaths.length + 2];
+        lastModified[0] = getTime(page.getLastModified());
+        lastModified[1] = getLastModified(resolver, templatePath);
+        for (int i = 0; i < fragmentPaths.length; i++) {
+            lastModified[i + 2] = getLastModified(resolver, fragmentPaths[i]);
+        }
+        return lastModified;
+    }
+
+    private static long getLastModified(@NotNull ResourceResolver resolver, String path) {
+        if (path == null) {
+            return 0;
+        }
+        Resource resource = resolver.getResource(path);
+        if (resource == null) {
+            return -1;
+        }
+        if (!JcrConstants.JCR_CONTENT.equals(resource.getName())) {
+            Resource content = resource.getChild(JcrConstants.JCR_CONTENT);
+            if (content != null) {
+                resource = content;
+            }
+        }
+        Calendar lastModified = resource.getValueMap().get(NameConstants.PN_PAGE_LAST_MOD, Calendar.class);
+        if (lastModified == null) {
+            lastModified = resource.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        }
+        return getTime(lastModified);
+    }
+
+    private static long getTime(Calendar calendar) {
+        return calendar != null ? calendar.getTimeInMillis() : 0;
+    }
+
+    private static final class IndexedPage {
+
+        private final Set<String> resourceTypes;
+        private final String[] fragmentPaths;
+        // the last modification dates of the page, the template structure and the experience fragments
+        private final long[] lastModified;
+
+        private IndexedPage(@NotNull Set<String> resourceTypes, @NotNull String[] fragmentPaths, @NotNull long[] lastModified) {
+            this.resourceTypes = resourceTypes;
+            this.fragmentPaths = fragmentPaths;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * HTTP caching policy of an {@link AdaptiveImageServlet} registration: emits weak {@code ETag}s and {@code Cache-Control} headers and
+ * answers conditional {@code If-None-Match} requests.
+ * <p>
+ * Fingerprinted requests (the ones whose suffix contains the image's last modification date) never change their content, so they are
+ * cached for {@code fingerprintedMaxAge} and optionally marked {@code immutable}; the other requests are cached for {@code maxAge},
+ * optionally with {@code stale-while-revalidate}.
+ */
+class AdaptiveImageCachingPolicy {
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    static final String WEAK_PREFIX = "W/";
+
+    private final int maxAge;
+    private final int fingerprintedMaxAge;
+    private final boolean immutable;
+    private final int staleWhileRevalidate;
+
+    /**
+     * @param maxAge               the max age of non-fingerprinted renditions, in seconds; no {@code Cache-Control} is emitted if negative
+     * @param fingerprintedMaxAge  the max age of fingerprinted renditions, in seconds; no {@code Cache-Control} is emitted if negative
+     * @param immutable            {@code true} to mark fingerprinted renditions as {@code immutable}
+     * @param staleWhileRevalidate the {@code stale-while-revalidate} period of non-fingerprinted renditions, in seconds; disabled if not
+     *                             positive
+     */
+    AdaptiveImageCachingPolicy(int maxAge, int fingerprintedMaxAge, boolean immutable, int staleWhileRevalidate) {
+        this.maxAge = maxAge;
+        this.fingerprintedMaxAge = fingerprintedMaxAge;
+        this.immutable = immutable;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Builds the weak entity tag of a rendition. The tag identifies the rendition's key, not its bytes: a rendition rendered again (e.g.
+     * after an eviction, or by another instance) is equivalent but not necessarily byte-identical.
+     *
+     * @param digest the digest identifying the rendition
+     * @return the weak entity tag
+     */
+    @NotNull
+    static String getETag(@NotNull String digest) {
+        return WEAK_PREFIX + '"' + digest + '"';
+    }
+
+    /**
+     * Sets the {@code ETag} and {@code Cache-Control} headers of a response.
+     *
+     * @param response      the response
+     * @param etag          the entity tag of the rendition
+     * @param fingerprinted {@code true} if the request's URL contains the rendition's last modification date
+     */
+    void applyHeaders(@NotNull SlingHttpServletResponse response, @NotNull String etag, boolean fingerprinted) {
+        response.setHeader(HEADER_ETAG, etag);
+        String cacheControl = getCacheControl(fingerprinted);
+        if (cacheControl != null) {
+            response.setHeader(HEADER_CACHE_CONTROL, cacheControl);
+        }
+    }
+
+    /**
+     * Answers the request with a {@code 304} status code if its {@code If-None-Match} header matches the given entity tag.
+     *
+     * @param request       the request
+     * @param response      the response
+     * @param etag          the entity tag of the rendition
+     * @param fingerprinted {@code true} if the request's URL contains the rendition's last modification date
+     * @return {@code true} if the request was answered, {@code false} if the rendition has to be streamed
+     */
+    boolean handleIfNoneMatchHeader(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response,
+                                    @NotNull String etag, boolean fingerprinted) {
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (StringUtils.isNotEmpty(ifNoneMatch) && matches(ifNoneMatch, etag)) {
+            applyHeaders(response, etag, fingerprinted);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    String getCacheControl(boolean fingerprinted) {
+        if (fingerprinted) {
+            if (fingerprintedMaxAge < 0) {
+                return null;
+            }
+            return "max-age=" + fingerprintedMaxAge + (immutable ? ", immutable" : "");
+        }
+        if (maxAge < 0) {
+            return null;
+        }
+        return "max-age=" + maxAge + (staleWhileRevalidate > 0 ? ", stale-while-revalidate=" + staleWhileRevalidate : "");
+    }
+
+    /**
+     * Checks an {@code If-None-Match} header against an entity tag, using the weak comparison mandated for {@code If-None-Match}.
+     *
+     * @param ifNoneMatch the header value
+     * @param etag        the entity tag
+     * @return {@code true} if the header matches the entity tag
+     */
+    static boolean matches(@NotNull String ifNoneMatch, @NotNull String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if ("*".equals(tag)) {
+                return true;
+            }
+            if (StringUtils.removeStart(tag, WEAK_PREFIX).equals(StringUtils.removeStart(etag, WEAK_PREFIX))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
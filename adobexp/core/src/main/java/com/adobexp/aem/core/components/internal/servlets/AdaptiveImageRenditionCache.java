@@ -0,0 +1,560 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size capped, least-recently-used disk cache for the renditions produced by the {@link AdaptiveImageServlet}.
+ * <p>
+ * Every rendition is stored in a content-addressed blob file named after the {@link AdaptiveImageRenditionKey#digest() digest} of its
+ * key. The index (digest, size, mime type, source paths) is kept in memory in access order and persisted next to the blobs every minute
+ * when it changed, and when the component is deactivated, so that a restart does not lose the cache. Blobs the index doesn't know
+ * about, e.g. after the instance was killed, are deleted when the component is activated. Since the key contains the last modification date of both the
+ * component and the asset, modified images never hit stale entries; the obsolete entries are additionally dropped as soon as a change
+ * is observed on the component or on the asset.
+ */
+@Designate(ocd = AdaptiveImageRenditionCache.Config.class)
+@Component(
+        service = {AdaptiveImageRenditionCache.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/content",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+public class AdaptiveImageRenditionCache implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Adaptive Image Rendition Cache",
+            description = "Disk cache for the renditions rendered by the adaptive image servlet."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Enabled",
+                description = "Enables the rendition cache."
+        )
+        boolean enabled() default true;
+
+        @AttributeDefinition(
+                name = "Cache directory",
+                description = "The directory holding the cached renditions. If empty, the bundle's data area is used."
+        )
+        String directory() default "";
+
+        @AttributeDefinition(
+                name = "Maximum cache size (MB)",
+                description = "The maximum size of all cached renditions. The least recently used renditions are evicted when the size " +
+                        "is exceeded."
+        )
+        long maxSizeMb() default DEFAULT_MAX_SIZE_MB;
+
+        @AttributeDefinition(
+                name = "Maximum rendition size (KB)",
+                description = "Renditions larger than this size are not cached."
+        )
+        int maxEntrySizeKb() default DEFAULT_MAX_ENTRY_SIZE_KB;
+    }
+
+    static final long DEFAULT_MAX_SIZE_MB = 512;
+    static final int DEFAULT_MAX_ENTRY_SIZE_KB = 5 * 1024;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveImageRenditionCache.class);
+    private static final String DATA_DIRECTORY = "adaptive-image-renditions";
+    private static final String INDEX_FILE = "index.bin";
+    private static final String BLOB_SUFFIX = ".bin";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final long INDEX_STORE_INTERVAL_SECONDS = 60;
+    private static final int INDEX_VERSION = 1;
+
+    @Reference
+    private AdaptiveImageServletMetrics metrics;
+
+    private boolean enabled;
+    private Path directory;
+    private long maxSize;
+    private int maxEntrySize;
+
+    // digest -> entry, in access order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // component or source path -> digests of the renditions depending on it
+    private final Map<String, Set<String>> dependencies = new HashMap<>();
+    private long size;
+    // true if the index changed since it was last persisted
+    private boolean dirty;
+    private ScheduledExecutorService indexWriter;
+
+    @Activate
+    protected void activate(BundleContext bundleContext, Config config) {
+        enabled = config.enabled();
+        maxSize = Math.max(config.maxSizeMb(), 0) * 1024 * 1024;
+        maxEntrySize = Math.max(config.maxEntrySizeKb(), 0) * 1024;
+        if (StringUtils.isNotBlank(config.directory())) {
+            directory = new File(config.directory().trim()).toPath();
+        } else {
+            File dataFile = bundleContext.getDataFile(DATA_DIRECTORY);
+            directory = dataFile != null ? dataFile.toPath() : null;
+        }
+        if (directory == null) {
+            LOG.warn("No directory available for the adaptive image rendition cache; the cache is disabled.");
+            enabled = false;
+        }
+        if (enabled) {
+            try {
+                Files.createDirectories(directory);
+                loadIndex();
+                deleteOrphans();
+            } catch (IOException e) {
+                LOG.error("Unable to initialise the adaptive image rendition cache in {}; the cache is disabled.", directory, e);
+                enabled = false;
+            }
+        }
+        if (enabled) {
+            indexWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "adaptive-image-rendition-cache-index");
+                thread.setDaemon(true);
+                return thread;
+            });
+            indexWriter.scheduleWithFixedDelay(this::storeIndexIfDirty, INDEX_STORE_INTERVAL_SECONDS, INDEX_STORE_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (indexWriter != null) {
+            indexWriter.shutdownNow();
+            try {
+                indexWriter.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            indexWriter = null;
+        }
+        if (enabled) {
+            try {
+                storeIndex();
+            } catch (IOException e) {
+                LOG.warn("Unable to persist the adaptive image rendition cache index in {}.", directory, e);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if renditions can be cached.
+     *
+     * @return {@code true} if the cache is enabled, {@code false} otherwise
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the maximum size of a rendition that will be accepted by {@link #put(AdaptiveImageRenditionKey, byte[], int, String,
+     * String)}.
+     *
+     * @return the maximum size in bytes
+     */
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Looks up a cached rendition.
+     *
+     * @param key the rendition key
+     * @return the cached rendition, or {@code null} if the rendition is not cached
+     */
+    @Nullable
+    public CachedRendition get(@NotNull AdaptiveImageRenditionKey key) {
+        if (!enabled) {
+            return null;
+        }
+        String digest = key.digest();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(digest);
+        }
+        if (entry == null) {
+            metrics.markRenditionCacheMiss();
+            return null;
+        }
+        Path blob = getBlob(digest);
+        if (!Files.isReadable(blob)) {
+            remove(digest);
+            metrics.markRenditionCacheMiss();
+            return null;
+        }
+        metrics.markRenditionCacheHit();
+        return new CachedRendition(blob, entry.size, entry.contentType, entry.dispositionType);
+    }
+
+    /**
+     * Stores a rendition, evicting the least recently used renditions if the cache grows over its configured size.
+     *
+     * @param key                the rendition key
+     * @param data               the rendition bytes
+     * @param length             the number of valid bytes in {@code data}
+     * @param contentType        the content type the rendition is served with
+     * @param dispositionType    the disposition type ({@code inline} or {@code attachment}) the rendition is served with, if any
+     */
+    public void put(@NotNull AdaptiveImageRenditionKey key, byte @NotNull [] data, int length, @NotNull String contentType,
+                    @Nullable String dispositionType) {
+        if (!enabled || length <= 0 || length > maxEntrySize || length > maxSize) {
+            return;
+        }
+        String digest = key.digest();
+        Path blob = getBlob(digest);
+        try {
+            Files.createDirectories(blob.getParent());
+            Path tmp = Files.createTempFile(blob.getParent(), digest, TMP_SUFFIX);
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                os.write(data, 0, length);
+            }
+            Files.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to cache the rendition {}.", key, e);
+            return;
+        }
+        Entry entry = new Entry(digest, length, contentType, dispositionType, key.getResourcePath(), key.getSourcePath());
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Entry previous = entries.put(digest, entry);
+            if (previous != null) {
+                size -= previous.size;
+            }
+            size += entry.size;
+            dirty = true;
+            addDependency(entry.resourcePath, digest);
+            addDependency(entry.sourcePath, digest);
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                if (eldest != entry) {
+                    iterator.remove();
+                    unlink(eldest);
+                    evicted.add(eldest.digest);
+                }
+            }
+        }
+        for (String digestToDelete : evicted) {
+            deleteBlob(digestToDelete);
+        }
+        if (!evicted.isEmpty()) {
+            metrics.markRenditionCacheEvictions(evicted.size());
+        }
+    }
+
+    /**
+     * Drops all the renditions that depend on the resource at the given path, or on one of its ancestors.
+     *
+     * @param path the path of a modified or removed resource
+     */
+    public void invalidate(@NotNull String path) {
+        if (!enabled) {
+            return;
+        }
+        List<String> removed = new ArrayList<>();
+        synchronized (this) {
+            String candidate = path;
+            while (StringUtils.isNotEmpty(candidate)) {
+                Set<String> digests = dependencies.get(candidate);
+                if (digests != null) {
+                    for (String digest : new ArrayList<>(digests)) {
+                        Entry entry = entries.remove(digest);
+                        if (entry != null) {
+                            unlink(entry);
+                            removed.add(digest);
+                        }
+                    }
+                }
+                int lastSlash = candidate.lastIndexOf('/');
+                candidate = lastSlash > 0 ? candidate.substring(0, lastSlash) : null;
+            }
+        }
+        for (String digest : removed) {
+            deleteBlob(digest);
+        }
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        for (ResourceChange change : changes) {
+            invalidate(change.getPath());
+        }
+    }
+
+    private void remove(String digest) {
+        synchronized (this) {
+            Entry entry = entries.remove(digest);
+            if (entry != null) {
+                unlink(entry);
+            }
+        }
+        deleteBlob(digest);
+    }
+
+    // must be called while holding the lock
+    private void unlink(Entry entry) {
+        size -= entry.size;
+        dirty = true;
+        removeDependency(entry.resourcePath, entry.digest);
+        removeDependency(entry.sourcePath, entry.digest);
+    }
+
+    // must be called while holding the lock
+    private void addDependency(String path, String digest) {
+        if (StringUtils.isNotEmpty(path)) {
+            dependencies.computeIfAbsent(path, p -> new HashSet<>()).add(digest);
+        }
+    }
+
+    // must be called while holding the lock
+    private void removeDependency(String path, String digest) {
+        Set<String> digests = dependencies.get(path);
+        if (digests != null) {
+            digests.remove(digest);
+            if (digests.isEmpty()) {
+                dependencies.remove(path);
+            }
+        }
+    }
+
+    private Path getBlob(String digest) {
+        return directory.resolve(digest.substring(0, 2)).resolve(digest + BLOB_SUFFIX);
+    }
+
+    private void deleteBlob(String digest) {
+        try {
+            Files.deleteIfExists(getBlob(digest));
+        } catch (IOException e) {
+            LOG.debug("Unable to delete cached rendition {}.", digest, e);
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        Path index = directory.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != INDEX_VERSION) {
+                LOG.info("Discarding adaptive image rendition cache index with an unknown version.");
+                return;
+            }
+            int count = in.readInt();
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    Entry entry = new Entry(in.readUTF(), in.readLong(), in.readUTF(), StringUtils.trimToNull(in.readUTF()), in.readUTF(),
+                            in.readUTF());
+                    if (Files.isReadable(getBlob(entry.digest)) && size + entry.size <= maxSize) {
+                        entries.put(entry.digest, entry);
+                        size += entry.size;
+                        addDependency(entry.resourcePath, entry.digest);
+                        addDependency(entry.sourcePath, entry.digest);
+                    }
+                }
+                dirty = entries.size() != count;
+            }
+            LOG.info("Loaded {} cached adaptive image renditions ({} bytes) from {}.", entries.size(), size, directory);
+        } catch (IOException e) {
+            LOG.warn("Unable to read the adaptive image rendition cache index {}; starting with an empty cache.", index, e);
+        }
+    }
+
+    /**
+     * Deletes the blobs that are not in the index, as well as the blobs that were being written when the instance stopped.
+     */
+    private void deleteOrphans() throws IOException {
+        int deleted = 0;
+        try (DirectoryStream<Path> indexes = Files.newDirectoryStream(directory, "*" + TMP_SUFFIX)) {
+            for (Path index : indexes) {
+                Files.deleteIfExists(index);
+            }
+        }
+        try (DirectoryStream<Path> buckets = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path bucket : buckets) {
+                try (DirectoryStream<Path> blobs = Files.newDirectoryStream(bucket)) {
+                    for (Path blob : blobs) {
+                        String name = blob.getFileName().toString();
+                        boolean orphan = name.endsWith(TMP_SUFFIX);
+                        if (!orphan && name.endsWith(BLOB_SUFFIX)) {
+                            String digest = name.substring(0, name.length() - BLOB_SUFFIX.length());
+                            synchronized (this) {
+                                orphan = !entries.containsKey(digest);
+                            }
+                        }
+                        if (orphan && Files.deleteIfExists(blob)) {
+                            deleted++;
+                        }
+                    }
+                }
+            }
+        }
+        if (deleted > 0) {
+            LOG.info("Deleted {} adaptive image renditions missing from the cache index in {}.", deleted, directory);
+        }
+    }
+
+    private void storeIndexIfDirty() {
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+        }
+        try {
+            storeIndex();
+        } catch (IOException e) {
+            LOG.warn("Unable to persist the adaptive image rendition cache index in {}.", directory, e);
+        }
+    }
+
+    private void storeIndex() throws IOException {
+        Path index = directory.resolve(INDEX_FILE);
+        List<Entry> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(entries.values());
+            dirty = false;
+        }
+        Path tmp = Files.createTempFile(directory, INDEX_FILE, TMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.digest);
+                out.writeLong(entry.size);
+                out.writeUTF(entry.contentType);
+                out.writeUTF(StringUtils.defaultString(entry.dispositionType));
+                out.writeUTF(entry.resourcePath);
+                out.writeUTF(entry.sourcePath);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+        Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Entry {
+        final String digest;
+        final long size;
+        final String contentType;
+        final String dispositionType;
+        final String resourcePath;
+        final String sourcePath;
+
+        Entry(String digest, long size, String contentType, String dispositionType, String resourcePath, String sourcePath) {
+            this.digest = digest;
+            this.size = size;
+            this.contentType = contentType;
+            this.dispositionType = dispositionType;
+            this.resourcePath = resourcePath;
+            this.sourcePath = sourcePath;
+        }
+    }
+
+    /**
+     * A rendition served from the cache.
+     */
+    public static final class CachedRendition {
+
+        private final Path file;
+        private final long size;
+        private final String contentType;
+        private final String dispositionType;
+
+        CachedRendition(Path file, long size, String contentType, String dispositionType) {
+            this.file = file;
+            this.size = size;
+            this.contentType = contentType;
+            this.dispositionType = dispositionType;
+        }
+
+        /**
+         * Opens the rendition for reading.
+         *
+         * @return the rendition stream
+         * @throws NoSuchFileException if the rendition was evicted in the meantime
+         * @throws IOException         if the rendition cannot be read
+         */
+        @NotNull
+        public InputStream openStream() throws IOException {
+            return Files.newInputStream(file);
+        }
+
+        @NotNull
+        public Path getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @NotNull
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Nullable
+        public String getDispositionType() {
+            return dispositionType;
+        }
+    }
+}
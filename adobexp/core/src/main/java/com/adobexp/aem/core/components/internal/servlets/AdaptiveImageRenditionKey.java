@@ -0,0 +1,171 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.adobexp.aem.core.components.internal.helper.image.ImageTransform;
+
+/**
+ * Identifies a rendition produced by the {@link AdaptiveImageServlet}. The output of the servlet is fully determined by the image
+ * component, the source binary, their last modification date, the crop / rotate / flip properties of the component and the requested
+ * width, quality and mime type, so two requests with an equal key produce equivalent images. They are not guaranteed to be
+ * byte-identical (e.g. when rendered by instances with different image encoders), which is why the entity tags derived from the key
+ * are weak.
+ */
+public final class AdaptiveImageRenditionKey {
+
+    private static final char SEPARATOR = '|';
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String resourcePath;
+    private final String sourcePath;
+    private final long lastModified;
+    private final ImageTransform transform;
+    private final String mimeType;
+
+    private String canonical;
+
+    AdaptiveImageRenditionKey(@NotNull String resourcePath, @NotNull String sourcePath, long lastModified,
+                              @NotNull ImageTransform transform, @NotNull String mimeType) {
+        this.resourcePath = resourcePath;
+        this.sourcePath = sourcePath;
+        this.lastModified = lastModified;
+        this.transform = transform;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Creates the key of a rendition of the given image component.
+     *
+     * @param resourcePath the path of the image component
+     * @param sourcePath   the path of the asset or of the file resource holding the image binary
+     * @param lastModified the most recent modification date of the component and of the source, in milliseconds
+     * @param transform    the transformation of the image, including the resize width and the quality
+     * @param mimeType     the mime type of the produced rendition
+     * @return the key
+     */
+    @NotNull
+    static AdaptiveImageRenditionKey of(@NotNull String resourcePath, @NotNull String sourcePath, long lastModified,
+                                        @NotNull ImageTransform transform, @NotNull String mimeType) {
+        return new AdaptiveImageRenditionKey(resourcePath, sourcePath, lastModified, transform, mimeType);
+    }
+
+    /**
+     * Returns the path of the image component.
+     *
+     * @return the image component path
+     */
+    @NotNull
+    public String getResourcePath() {
+        return resourcePath;
+    }
+
+    /**
+     * Returns the path of the asset or file resource the rendition is computed from.
+     *
+     * @return the source path
+     */
+    @NotNull
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    /**
+     * Returns the transformation of the image, including the resize width and the quality.
+     *
+     * @return the transformation
+     */
+    @NotNull
+    public ImageTransform getTransform() {
+        return transform;
+    }
+
+    /**
+     * Returns the mime type of the rendition.
+     *
+     * @return the mime type
+     */
+    @NotNull
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Returns a hex encoded SHA-256 digest of this key, suitable to be used as a file name.
+     *
+     * @return the digest of this key
+     */
+    @NotNull
+    public String digest() {
+        return digest(toString());
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 digest of a string.
+     *
+     * @param value the string to digest
+     * @return the digest
+     */
+    @NotNull
+    static String digest(@NotNull String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+                hex[i * 2 + 1] = HEX[hash[i] & 0x0f];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AdaptiveImageRenditionKey)) {
+            return false;
+        }
+        return toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (canonical == null) {
+            StringBuilder builder = new StringBuilder(resourcePath.length() + sourcePath.length() + 96)
+                    .append(resourcePath).append(SEPARATOR)
+                    .append(sourcePath).append(SEPARATOR)
+                    .append(lastModified).append(SEPARATOR);
+            canonical = transform.appendTo(builder).append(SEPARATOR)
+                    .append(mimeType)
+                    .toString();
+        }
+        return canonical;
+    }
+}
@@ -0,0 +1,402 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.commons.mime.MimeTypeService;
+import org.apache.sling.engine.SlingRequestProcessor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobexp.aem.core.components.models.Image;
+import com.day.cq.commons.DownloadResource;
+import com.day.cq.contentsync.handler.util.RequestResponseFactory;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.wcm.api.policies.ContentPolicy;
+import com.day.cq.wcm.api.policies.ContentPolicyManager;
+import com.day.cq.wcm.commons.ReferenceSearch;
+
+import static com.adobexp.aem.core.components.internal.helper.image.AdaptiveImageHelper.IMAGE_RESOURCE_TYPE;
+
+/**
+ * Renders the adaptive image renditions of the modified (or activated) image components and assets in the background, so that they
+ * are served from the {@link AdaptiveImageRenditionCache} when the first visitor requests them.
+ * <p>
+ * The renditions are requested through the {@link SlingRequestProcessor}, exactly like the client requests, for every width and
+ * quality allowed by the image component's content policy. Only the changes of asset renditions and of image components are
+ * considered. Modifications are debounced per asset or component: the renditions are rendered once no modification happened for the
+ * configured delay, one at a time by a single background thread.
+ */
+@Designate(ocd = AdaptiveImageRenditionWarmer.Config.class)
+@Component(
+        service = ResourceChangeListener.class,
+        property = {
+                ResourceChangeListener.PATHS + "=/content",
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED"
+        }
+)
+public class AdaptiveImageRenditionWarmer implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Adaptive Image Rendition Warmer",
+            description = "Renders the adaptive image renditions of modified images and assets in the background."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Enabled",
+                description = "Enables the rendering of the adaptive image renditions when images or assets are modified."
+        )
+        boolean enabled() default false;
+
+        @AttributeDefinition(
+                name = "Delay",
+                description = "Time, in milliseconds, without modifications of an image or asset to wait before rendering it, " +
+                        "so that a series of modifications is rendered only once."
+        )
+        long delay() default 10000;
+
+        @AttributeDefinition(
+                name = "Pause between renders",
+                description = "Time, in milliseconds, to wait between two renditions, to limit the load caused by the warm-up."
+        )
+        long pauseBetweenRenders() default 200;
+
+        @AttributeDefinition(
+                name = "Maximum pending paths",
+                description = "The maximum number of images and assets waiting to be rendered. Further modifications are ignored."
+        )
+        int maxPendingPaths() default 1000;
+
+        @AttributeDefinition(
+                name = "Selector",
+                description = "The selector the adaptive image servlet is registered for."
+        )
+        String selector() default AdaptiveImageServlet.CORE_DEFAULT_SELECTOR;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveImageRenditionWarmer.class);
+    private static final String SERVICE_NAME = "image-warmer";
+    private static final String DAM_ROOT = "/content/dam/";
+    private static final String JCR_CONTENT = "/jcr:content";
+    private static final String RENDITIONS = JCR_CONTENT + "/renditions";
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private SlingRequestProcessor requestProcessor;
+
+    @Reference
+    private RequestResponseFactory requestResponseFactory;
+
+    @Reference
+    private MimeTypeService mimeTypeService;
+
+    @Reference
+    private AdaptiveImageServletMetrics metrics;
+
+    /**
+     * The images and assets waiting to be rendered, with the time of their last modification.
+     */
+    private final Map<String, Long> pendingPaths = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+    private volatile Config config;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        this.config = config;
+        if (config.enabled() && executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "adaptive-image-warmer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        } else if (!config.enabled()) {
+            deactivate();
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        pendingPaths.clear();
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        if (executor == null) {
+            return;
+        }
+        ResourceResolver resourceResolver = null;
+        try {
+            for (ResourceChange change : changes) {
+                String path = getWarmedPath(change.getPath());
+                if (path == null) {
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (pendingPaths.replace(path, now) != null) {
+                    // already pending, its rendering is postponed
+                    continue;
+                }
+                if (!path.startsWith(DAM_ROOT)) {
+                    if (resourceResolver == null) {
+                        resourceResolver = getServiceResourceResolver();
+                    }
+                    if (!isImageComponent(resourceResolver, path)) {
+                        continue;
+                    }
+                }
+                if (pendingPaths.size() >= config.maxPendingPaths()) {
+                    LOG.debug("Too many pending paths, not warming the renditions of {}.", path);
+                    continue;
+                }
+                if (pendingPaths.putIfAbsent(path, now) == null && schedule(path, config.delay())) {
+                    metrics.markWarmupQueued();
+                }
+            }
+        } catch (LoginException e) {
+            LOG.error("Unable to log in with the {} service user; adaptive image renditions cannot be warmed.", SERVICE_NAME, e);
+        } finally {
+            if (resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    private boolean schedule(@NotNull String path, long delay) {
+        ScheduledExecutorService scheduler = executor;
+        try {
+            if (scheduler != null) {
+                scheduler.schedule(() -> warmWhenQuiet(path), delay, TimeUnit.MILLISECONDS);
+                return true;
+            }
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Warmer stopped, not warming the renditions of {}.", path);
+        }
+        pendingPaths.remove(path);
+        return false;
+    }
+
+    /**
+     * Renders the renditions of a pending path once it was not modified for the configured delay, postponing the rendering otherwise.
+     *
+     * @param path the pending path
+     */
+    private void warmWhenQuiet(@NotNull String path) {
+        Long lastModification = pendingPaths.get(path);
+        if (lastModification == null) {
+            return;
+        }
+        long wait = lastModification + config.delay() - System.currentTimeMillis();
+        if (wait > 0 || !pendingPaths.remove(path, lastModification)) {
+            schedule(path, Math.max(wait, 0));
+            return;
+        }
+        warm(path);
+    }
+
+    private boolean isImageComponent(@NotNull ResourceResolver resourceResolver, @NotNull String path) {
+        Resource resource = resourceResolver.getResource(path);
+        return resource != null && resource.isResourceType(IMAGE_RESOURCE_TYPE);
+    }
+
+    @NotNull
+    private ResourceResolver getServiceResourceResolver() throws LoginException {
+        Map<String, Object> authenticationInfo = Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SERVICE_NAME);
+        return resourceResolverFactory.getServiceResourceResolver(authenticationInfo);
+    }
+
+    /**
+     * Maps a modified path to the asset or component to warm: changes of an asset's renditions are mapped to the asset, changes of an
+     * image's file are mapped to the image. Other changes in the DAM (e.g. of the metadata) do not affect the renditions.
+     *
+     * @param path the modified path
+     * @return the path to warm, or {@code null} if the path is not relevant
+     */
+    @Nullable
+    private String getWarmedPath(@NotNull String path) {
+        if (path.startsWith(DAM_ROOT)) {
+            int renditions = path.indexOf(RENDITIONS);
+            return renditions > 0 ? path.substring(0, renditions) : null;
+        }
+        if (path.endsWith("/" + DownloadResource.NN_FILE)) {
+            return StringUtils.substringBeforeLast(path, "/");
+        }
+        return path;
+    }
+
+    private void warm(@NotNull String path) {
+        try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+            Resource resource = resourceResolver.getResource(path);
+            if (resource == null) {
+                return;
+            }
+            List<Resource> components = new ArrayList<>();
+            if (path.startsWith(DAM_ROOT)) {
+                if (resource.adaptTo(Asset.class) == null) {
+                    return;
+                }
+                ReferenceSearch referenceSearch = new ReferenceSearch();
+                referenceSearch.setSearchRoot("/content");
+                referenceSearch.setExact(true);
+                for (ReferenceSearch.Info info : referenceSearch.search(resourceResolver, path).values()) {
+                    for (String propertyPath : info.getProperties()) {
+                        Resource component = resourceResolver.getResource(StringUtils.substringBeforeLast(propertyPath, "/"));
+                        if (component != null && component.isResourceType(IMAGE_RESOURCE_TYPE)) {
+                            components.add(component);
+                        }
+                    }
+                }
+            } else if (resource.isResourceType(IMAGE_RESOURCE_TYPE)) {
+                components.add(resource);
+            }
+            for (Resource component : components) {
+                for (String url : getRenditionUrls(component)) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    render(resourceResolver, url);
+                    Thread.sleep(config.pauseBetweenRenders());
+                }
+            }
+        } catch (LoginException e) {
+            LOG.error("Unable to log in with the {} service user; adaptive image renditions cannot be warmed.", SERVICE_NAME, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to warm the adaptive image renditions of {}.", path, e);
+            metrics.markWarmupFailed();
+        }
+    }
+
+    /**
+     * Builds the URLs of the adaptive image renditions of an image component, for every width allowed by its content policy.
+     *
+     * @param component the image component
+     * @return the URLs of the renditions
+     */
+    @NotNull
+    private List<String> getRenditionUrls(@NotNull Resource component) {
+        List<String> urls = new ArrayList<>();
+        String mimeType = getMimeType(component);
+        if (mimeType == null) {
+            return urls;
+        }
+        String extension = mimeTypeService.getExtension(mimeType);
+        if (extension == null || "tif".equalsIgnoreCase(extension) || "tiff".equalsIgnoreCase(extension)) {
+            extension = "jpeg";
+        }
+        if ("gif".equalsIgnoreCase(extension) || "svg".equalsIgnoreCase(extension)) {
+            // streamed as they are, there is nothing to render
+            return urls;
+        }
+        ValueMap policyProperties = ValueMap.EMPTY;
+        ContentPolicyManager policyManager = component.getResourceResolver().adaptTo(ContentPolicyManager.class);
+        if (policyManager != null) {
+            ContentPolicy policy = policyManager.getPolicy(component);
+            if (policy != null) {
+                policyProperties = policy.getProperties();
+            }
+        }
+        if (policyProperties.get(Image.PN_DESIGN_WEBP_ENABLED, false) && ImageIOEncoder.canWrite("image/webp")) {
+            extension = "webp";
+        }
+        int quality = policyProperties.get(Image.PN_DESIGN_JPEG_QUALITY, AdaptiveImageServlet.DEFAULT_JPEG_QUALITY);
+        String[] widths = policyProperties.get(Image.PN_DESIGN_ALLOWED_RENDITION_WIDTHS, new String[0]);
+        String baseUrl = component.getPath() + "." + config.selector() + ".";
+        if (widths.length == 0) {
+            urls.add(baseUrl + extension);
+        }
+        for (String width : widths) {
+            if (StringUtils.isNumeric(width)) {
+                urls.add(baseUrl + quality + "." + width + "." + extension);
+            }
+        }
+        return urls;
+    }
+
+    @Nullable
+    private String getMimeType(@NotNull Resource component) {
+        String fileReference = component.getValueMap().get(DownloadResource.PN_REFERENCE, String.class);
+        if (StringUtils.isNotEmpty(fileReference)) {
+            Resource assetResource = component.getResourceResolver().getResource(fileReference);
+            Asset asset = assetResource != null ? assetResource.adaptTo(Asset.class) : null;
+            return asset != null ? asset.getMimeType() : null;
+        }
+        Resource file = component.getChild(DownloadResource.NN_FILE);
+        if (file != null) {
+            return file.getResourceMetadata().getContentType();
+        }
+        return null;
+    }
+
+    private void render(@NotNull ResourceResolver resourceResolver, @NotNull String url) {
+        HttpServletRequest request = requestResponseFactory.createRequest("GET", url);
+        HttpServletResponse response = requestResponseFactory.createResponse(NullOutputStream.NULL_OUTPUT_STREAM);
+        try {
+            requestProcessor.processRequest(request, response, resourceResolver);
+            if (response.getStatus() == HttpServletResponse.SC_OK) {
+                LOG.debug("Warmed adaptive image rendition {}.", url);
+                metrics.markWarmupRendered();
+            } else {
+                LOG.debug("Warming adaptive image rendition {} failed with status {}.", url, response.getStatus());
+                metrics.markWarmupFailed();
+            }
+        } catch (Exception e) {
+            LOG.debug("Unable to warm adaptive image rendition {}.", url, e);
+            metrics.markWarmupFailed();
+        }
+    }
+}
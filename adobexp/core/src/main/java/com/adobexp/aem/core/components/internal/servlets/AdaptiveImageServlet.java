@@ -19,16 +19,17 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URLEncoder;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -53,11 +54,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adobexp.aem.core.components.commons.link.LinkManager;
+import com.adobexp.aem.core.components.internal.helper.image.ImageTransform;
 import com.adobexp.aem.core.components.internal.models.AbstractImageDelegatingModel;
+import com.adobexp.aem.core.components.internal.resource.AssetResolutionCache;
 import com.adobexp.aem.core.components.internal.resource.CoreResourceWrapper;
 import com.adobexp.aem.core.components.models.Image;
 import com.day.cq.commons.DownloadResource;
-import com.day.cq.commons.ImageResource;
 import com.day.cq.dam.api.Asset;
 import com.day.cq.dam.api.DamConstants;
 import com.day.cq.dam.api.Rendition;
@@ -101,26 +103,54 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
     static final int DEFAULT_RESIZE_WIDTH = 1280;
     public static final int DEFAULT_JPEG_QUALITY = 82; // similar to what is the default in com.day.image.Layer#write(...)
     public static final int DEFAULT_MAX_SIZE = 3840; // 4K UHD width
+    static final int DEFAULT_MAX_QUEUED_RENDERS = 32;
+    static final int DEFAULT_MAX_PIXELS_IN_FLIGHT = 100; // megapixels, ~400MB of decoded ARGB images
+    static final long DEFAULT_RENDER_QUEUE_TIMEOUT = 5000;
+    static final int DEFAULT_CACHE_MAX_AGE = 600;
+    static final int DEFAULT_CACHE_FINGERPRINTED_MAX_AGE = 31536000; // one year
     private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveImageServlet.class);
     private static final String DEFAULT_MIME = "image/jpeg";
+    static final String MIME_TYPE_WEBP = "image/webp";
+    static final String MIME_TYPE_AVIF = "image/avif";
+    private static final List<String> NEGOTIABLE_SOURCE_TYPES = Arrays.asList(DEFAULT_MIME, "image/png");
     private static final String SELECTOR_QUALITY_KEY = "quality";
     private static final String SELECTOR_WIDTH_KEY = "width";
+    // how long a request waits for a concurrent request rendering the same image before rendering it itself
+    private static final long SINGLE_FLIGHT_TIMEOUT_MS = 30000;
     private int defaultResizeWidth;
     private int maxInputWidth;
 
     private AdaptiveImageServletMetrics metrics;
 
+    private transient AdaptiveImageRenditionCache renditionCache;
+
+    private final transient RenditionSingleFlight renditionFlights = new RenditionSingleFlight();
+
+    private transient RenditionAdmission renditionAdmission;
+
+    private List<String> negotiatedImageTypes;
+
+    private transient AdaptiveImageCachingPolicy cachingPolicy;
+
+    private transient RenditionDimensionIndex renditionDimensionIndex;
+
     private transient MimeTypeService mimeTypeService;
 
     private transient AssetStore assetStore;
 
     public AdaptiveImageServlet(MimeTypeService mimeTypeService, AssetStore assetStore, AdaptiveImageServletMetrics metrics,
-            int defaultResizeWidth, int maxInputWidth) {
+            AdaptiveImageRenditionCache renditionCache, int defaultResizeWidth, int maxInputWidth, RenditionAdmission renditionAdmission,
+            List<String> negotiatedImageTypes, AdaptiveImageCachingPolicy cachingPolicy, RenditionDimensionIndex renditionDimensionIndex) {
         this.mimeTypeService = mimeTypeService;
         this.assetStore = assetStore;
         this.metrics = metrics;
+        this.renditionCache = renditionCache;
         this.defaultResizeWidth = defaultResizeWidth > 0 ? defaultResizeWidth : DEFAULT_RESIZE_WIDTH;
         this.maxInputWidth = maxInputWidth > 0 ? maxInputWidth : DEFAULT_MAX_SIZE;
+        this.renditionAdmission = renditionAdmission;
+        this.negotiatedImageTypes = negotiatedImageTypes != null ? negotiatedImageTypes : Collections.emptyList();
+        this.cachingPolicy = cachingPolicy;
+        this.renditionDimensionIndex = renditionDimensionIndex;
     }
 
     @Override
@@ -149,6 +179,21 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                     return;
                 }
             }
+            String imageType = getImageType(requestPathInfo.getExtension());
+            if (isNegotiable(imageType)) {
+                response.addHeader("Vary", "Accept");
+                imageType = negotiateImageType(request, imageType);
+            }
+            boolean fingerprinted = getRequestLastModifiedSuffix(suffix) >= 0;
+            String etag = null;
+            if (cachingPolicy != null && fingerprinted) {
+                // the suffix pins the last modification date, so the request itself identifies the rendition
+                etag = AdaptiveImageCachingPolicy.getETag(AdaptiveImageRenditionKey.digest(request.getResource().getPath() + '|' +
+                        requestPathInfo.getSelectorString() + '|' + suffix + '|' + imageType));
+                if (cachingPolicy.handleIfNoneMatchHeader(request, response, etag, true)) {
+                    return;
+                }
+            }
             Resource component = request.getResource();
             ResourceResolver resourceResolver = request.getResourceResolver();
             if (StringUtils.isNotEmpty(suffix)) {
@@ -169,8 +214,10 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             Page currentPage = Optional.ofNullable(resourceResolver.adaptTo(PageManager.class))
                     .map(pageManager -> pageManager.getContainingPage(request.getResource()))
                     .orElse(null);
-            Resource wrappedImageResourceWithInheritance = getWrappedImageResourceWithInheritance(component, linkManager, currentStyle, currentPage);
-            ImageComponent imageComponent = new ImageComponent(wrappedImageResourceWithInheritance);
+            AssetResolutionCache assetResolutionCache = AssetResolutionCache.get(request);
+            Resource wrappedImageResourceWithInheritance = getWrappedImageResourceWithInheritance(component, linkManager, currentStyle, currentPage,
+                    assetResolutionCache);
+            ImageComponent imageComponent = new ImageComponent(wrappedImageResourceWithInheritance, assetResolutionCache);
 
             if (imageComponent.source == Source.NOCONTENT || imageComponent.source == Source.NONEXISTING) {
                 LOGGER.error("Either the image from {} does not have a valid file reference" +
@@ -191,7 +238,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             }
             Asset asset = null;
             if (imageComponent.source == Source.ASSET) {
-                asset = imageComponent.imageResource.adaptTo(Asset.class);
+                asset = assetResolutionCache.getAsset(imageComponent.imageResource.getPath());
                 if (asset == null) {
                     LOGGER.error("Unable to adapt resource {} used by image {} to an asset.", imageComponent.imageResource.getPath(),
                             component.getPath());
@@ -227,14 +274,78 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                 Integer jpegQualityInPercentage = transformationMap.get(SELECTOR_QUALITY_KEY);
                 double quality = jpegQualityInPercentage / 100.0d;
                 int resizeWidth = transformationMap.get(SELECTOR_WIDTH_KEY);
-                String imageType = getImageType(requestPathInfo.getExtension());
-
-                if (imageComponent.source == Source.FILE) {
-                    transformAndStreamFile(response, componentProperties, resizeWidth, quality,
-                            imageComponent.imageResource, imageType, imageName);
-                } else if (imageComponent.source == Source.ASSET) {
-                    transformAndStreamAsset(response, componentProperties, resizeWidth, quality, asset, imageType,
-                            imageName);
+
+                ImageTransform transform = ImageTransform.of(componentProperties).withWidth(resizeWidth)
+                        .withQuality(jpegQualityInPercentage);
+                AdaptiveImageRenditionKey renditionKey = AdaptiveImageRenditionKey.of(component.getPath(),
+                        imageComponent.imageResource.getPath(), lastModifiedEpoch, transform, imageType);
+                if (cachingPolicy != null && etag == null) {
+                    etag = AdaptiveImageCachingPolicy.getETag(renditionKey.digest());
+                    if (cachingPolicy.handleIfNoneMatchHeader(request, response, etag, false)) {
+                        return;
+                    }
+                }
+                String rangeHeader = ByteRange.getRangeHeader(request, etag);
+                boolean cacheable = renditionCache != null && renditionCache.isEnabled() && lastModifiedEpoch > 0;
+                if (cacheable) {
+                    AdaptiveImageRenditionCache.CachedRendition cachedRendition = renditionCache.get(renditionKey);
+                    if (cachedRendition != null
+                            && streamCachedRendition(response, cachedRendition, imageName, etag, fingerprinted)) {
+                        return;
+                    }
+                }
+                RenditionSingleFlight.Flight flight = renditionFlights.join(renditionKey);
+                if (!flight.isLeader()) {
+                    metrics.markRenditionWait();
+                    RenditionSingleFlight.Rendition sharedRendition = flight.await(SINGLE_FLIGHT_TIMEOUT_MS);
+                    if (sharedRendition != null) {
+                        metrics.markRenditionCoalesced();
+                        streamSharedRendition(response, sharedRendition, imageName, etag, fingerprinted);
+                        return;
+                    }
+                }
+
+                RenditionAdmission.Permit permit = null;
+                if (renditionAdmission != null) {
+                    permit = renditionAdmission.acquire(estimateDecodedPixels(asset, resizeWidth));
+                    if (permit == null) {
+                        LOGGER.warn("Too many concurrent image transformations, rejecting the request for {}.", component.getPath());
+                        if (flight.isLeader()) {
+                            flight.complete(null);
+                        }
+                        response.setHeader("Retry-After", String.valueOf(renditionAdmission.getRetryAfterSeconds()));
+                        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        return;
+                    }
+                }
+                String renditionEtag = etag;
+                RenditionCapturingResponse capturingResponse = new RenditionCapturingResponse(response,
+                        renditionCache != null ? renditionCache.getMaxEntrySize() : AdaptiveImageRenditionCache.DEFAULT_MAX_ENTRY_SIZE_KB * 1024,
+                        rangeHeader, () -> applyCachingHeaders(response, renditionEtag, fingerprinted));
+                RenditionSingleFlight.Rendition rendition = null;
+                try {
+                    if (imageComponent.source == Source.FILE) {
+                        transformAndStreamFile(capturingResponse, transform, resizeWidth, quality,
+                                imageComponent.imageResource, imageType, imageName);
+                    } else if (imageComponent.source == Source.ASSET) {
+                        transformAndStreamAsset(capturingResponse, transform, resizeWidth, quality, asset, imageType,
+                                imageName);
+                    }
+                    if (capturingResponse.isCaptured()) {
+                        rendition = new RenditionSingleFlight.Rendition(capturingResponse.getBuffer(), capturingResponse.getLength(),
+                                capturingResponse.getCapturedContentType(), capturingResponse.getDispositionType());
+                        if (cacheable) {
+                            renditionCache.put(renditionKey, rendition.getData(), rendition.getLength(), rendition.getContentType(),
+                                    rendition.getDispositionType());
+                        }
+                    }
+                } finally {
+                    if (permit != null) {
+                        permit.close();
+                    }
+                    if (flight.isLeader()) {
+                        flight.complete(rendition);
+                    }
                 }
                 metrics.markImageStreamed();
             }
@@ -248,66 +359,38 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
 
     }
 
-    protected void transformAndStreamAsset(SlingHttpServletResponse response, ValueMap componentProperties, int resizeWidth, double quality,
+    protected void transformAndStreamAsset(SlingHttpServletResponse response, ImageTransform transform, int resizeWidth, double quality,
                                          Asset asset, String imageType, String imageName) throws IOException {
         String extension = mimeTypeService.getExtension(imageType);
         if ("gif".equalsIgnoreCase(extension) || "svg".equalsIgnoreCase(extension)) {
             LOGGER.debug("GIF or SVG asset detected; will render the original rendition.");
             metrics.markOriginalRenditionUsed();
-            try (InputStream is = asset.getOriginal().getStream()) {
+            Rendition original = asset.getOriginal();
+            try (InputStream is = original.getStream()) {
                 if (is != null) {
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, original.getSize(), imageType, imageName);
                 }
             }
             return;
         }
-        int rotationAngle = getRotation(componentProperties);
-        Rectangle rectangle = getCropRect(componentProperties);
-        boolean flipHorizontally = componentProperties.get(Image.PN_FLIP_HORIZONTAL, Boolean.FALSE);
-        boolean flipVertically = componentProperties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE);
+        int rotationAngle = transform.getRotation();
+        Rectangle rectangle = transform.getCropRectangle();
+        boolean flipHorizontally = transform.isFlippedHorizontally();
+        boolean flipVertically = transform.isFlippedVertically();
         if (rotationAngle != 0 || rectangle != null || resizeWidth > 0 || flipHorizontally || flipVertically) {
             int originalWidth = getDimension(asset.getMetadataValue(DamConstants.TIFF_IMAGEWIDTH));
             int originalHeight = getDimension(asset.getMetadataValue(DamConstants.TIFF_IMAGELENGTH));
             Layer layer = null;
             boolean appliedTransformation = false;
             if (rectangle != null) {
-                double scaling;
-                EnhancedRendition wcmRendition = getWCMRendition(asset);
-                double renditionWidth;
-                Dimension renditionDimension = wcmRendition.getDimension();
-                if (renditionDimension != null) {
-                    renditionWidth = renditionDimension.getWidth();
-                } else {
-                    renditionWidth = originalWidth;
-                }
-                if (originalWidth > renditionWidth) {
-                    scaling = (double) originalWidth / renditionWidth;
-                } else {
-                    if (originalWidth > 0 ) {
-                        scaling = renditionWidth / originalWidth;
-                    } else {
-                        scaling = 1.0;
-                    }
-                }
-                layer = getLayer(getOriginal(asset));
+                layer = getLayer(getOriginal(asset), getOriginalCropRect(asset, rectangle), resizeWidth, rotationAngle);
                 if (layer != null) {
-                    if (Math.abs(scaling - 1.0D) != 0) {
-                        Rectangle scaledRectangle = new Rectangle(
-                                (int) (rectangle.x * scaling),
-                                (int) (rectangle.y * scaling),
-                                (int) (rectangle.getWidth() * scaling),
-                                (int) (rectangle.getHeight() * scaling)
-                        );
-                        layer.crop(scaledRectangle);
-                    } else {
-                        layer.crop(rectangle);
-                    }
                     appliedTransformation = true;
                 }
             }
             if (rotationAngle != 0) {
                 if (layer == null) {
-                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType));
+                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType), null, resizeWidth, rotationAngle);
                 }
                 if (layer != null) {
                     layer.rotate(rotationAngle);
@@ -317,7 +400,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             }
             if (flipHorizontally) {
                 if (layer == null) {
-                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType));
+                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType), null, resizeWidth, rotationAngle);
                 }
                 if (layer != null) {
                     layer.flipHorizontally();
@@ -327,7 +410,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             }
             if (flipVertically) {
                 if (layer == null) {
-                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType));
+                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType), null, resizeWidth, rotationAngle);
                 }
                 if (layer != null) {
                     layer.flipVertically();
@@ -346,7 +429,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                 if (originalWidth > resizeWidth) {
                     int resizeHeight = calculateResizeHeight(originalWidth, originalHeight, resizeWidth);
                     if (resizeHeight > 0 && resizeHeight != originalHeight) {
-                        layer = getLayer(rendition);
+                        layer = getLayer(rendition, null, resizeWidth, 0);
                         if (layer != null) {
                             if (layer.getBackground().getTransparency() != Transparency.OPAQUE &&
                                     ("jpg".equalsIgnoreCase(extension) || "jpeg".equalsIgnoreCase(extension))) {
@@ -357,7 +440,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                             layer.resize(resizeWidth, resizeHeight);
                             response.setContentType(imageType);
                             LOGGER.debug("Resizing asset {}/{} to requested width of {}px; rendering.",asset.getPath(), rendition.getName(), resizeWidth);
-                            layer.write(imageType, quality, response.getOutputStream());
+                            writeLayer(layer, imageType, quality, response.getOutputStream());
                         } else {
                             streamOrConvert(response, rendition, imageType, imageName, resizeWidth, quality);
                         }
@@ -372,15 +455,16 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             }
         } else {
             LOGGER.debug("No need to perform any processing on asset {}; rendering.", asset.getPath());
-            try (InputStream is = getOriginal(asset).getStream()) {
+            EnhancedRendition original = getOriginal(asset);
+            try (InputStream is = original.getStream()) {
                 if (is != null) {
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, original.getSize(), imageType, imageName);
                 }
             }
         }
     }
 
-    private void transformAndStreamFile(SlingHttpServletResponse response, ValueMap componentProperties, int
+    private void transformAndStreamFile(SlingHttpServletResponse response, ImageTransform transform, int
             resizeWidth, double quality, Resource imageFile, String imageType, String imageName) throws
             IOException {
         try (InputStream is = imageFile.adaptTo(InputStream.class)) {
@@ -388,14 +472,14 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                     || "svg".equalsIgnoreCase(mimeTypeService.getExtension(imageType))) {
                 LOGGER.debug("GIF or SVG file detected; will render the original file.");
                 if (is != null) {
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, imageFile.getResourceMetadata().getContentLength(), imageType, imageName);
                 }
                 return;
             }
-            int rotationAngle = getRotation(componentProperties);
-            Rectangle rectangle = getCropRect(componentProperties);
-            boolean flipHorizontally = componentProperties.get(Image.PN_FLIP_HORIZONTAL, Boolean.FALSE);
-            boolean flipVertically = componentProperties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE);
+            int rotationAngle = transform.getRotation();
+            Rectangle rectangle = transform.getCropRectangle();
+            boolean flipHorizontally = transform.isFlippedHorizontally();
+            boolean flipVertically = transform.isFlippedVertically();
             if (is != null) {
                 if (rotationAngle != 0 || rectangle != null || resizeWidth > 0 || flipHorizontally || flipVertically) {
                     Layer layer = new Layer(is);
@@ -422,12 +506,52 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                     resizeAndStreamLayer(response, layer, imageType, resizeWidth, quality);
                 } else {
                     LOGGER.debug("No need to perform any processing on file {}; rendering.", imageFile.getPath());
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, imageFile.getResourceMetadata().getContentLength(), imageType, imageName);
                 }
             }
         }
     }
 
+    /**
+     * Scales a cropping rectangle, defined on the asset's web rendition, to the asset's original rendition.
+     *
+     * @param asset     the asset
+     * @param rectangle the cropping rectangle, relative to the web rendition
+     * @return the cropping rectangle, relative to the original rendition
+     */
+    @NotNull
+    private Rectangle getOriginalCropRect(@NotNull Asset asset, @NotNull Rectangle rectangle) {
+        int originalWidth = getDimension(asset.getMetadataValue(DamConstants.TIFF_IMAGEWIDTH));
+        double scaling;
+        EnhancedRendition wcmRendition = getWCMRendition(asset);
+        double renditionWidth;
+        Dimension renditionDimension = wcmRendition.getDimension();
+        if (renditionDimension != null) {
+            renditionWidth = renditionDimension.getWidth();
+        } else {
+            renditionWidth = originalWidth;
+        }
+        if (originalWidth > renditionWidth) {
+            scaling = (double) originalWidth / renditionWidth;
+        } else {
+            if (originalWidth > 0 ) {
+                scaling = renditionWidth / originalWidth;
+            } else {
+                scaling = 1.0;
+            }
+        }
+        Rectangle cropRectangle = rectangle;
+        if (Math.abs(scaling - 1.0D) != 0) {
+            cropRectangle = new Rectangle(
+                    (int) (rectangle.x * scaling),
+                    (int) (rectangle.y * scaling),
+                    (int) (rectangle.getWidth() * scaling),
+                    (int) (rectangle.getHeight() * scaling)
+            );
+        }
+        return cropRectangle;
+    }
+
     /**
      * Given a {@link Layer}, this method will attempt to resize it proportionally given the supplied {@code resizeWidth}. If the resize
      * operation would result in up-scaling, then the layer is rendered without any resize operation applied.
@@ -447,11 +571,11 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             layer.resize(resizeWidth, resizeHeight);
             response.setContentType(imageType);
             LOGGER.debug("Resizing processed (cropped and/or rotated) layer from its current width of {}px to {}px.", width, resizeWidth);
-            layer.write(imageType, quality, response.getOutputStream());
+            writeLayer(layer, imageType, quality, response.getOutputStream());
         } else {
             response.setContentType(imageType);
             LOGGER.debug("No need to resize processed (cropped and/or rotated) layer since it would lead to upscaling; rendering.");
-            layer.write(imageType, quality, response.getOutputStream());
+            writeLayer(layer, imageType, quality, response.getOutputStream());
         }
     }
 
@@ -478,6 +602,50 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
         return null;
     }
 
+    /**
+     * Return a {@link Layer} based on the provided {@link EnhancedRendition}, decoding only the given region and subsampling the
+     * rendition if it is much larger than the requested width or larger than the maximum processed width. Falls back to
+     * {@link #getLayer(EnhancedRendition)} for renditions that cannot be decoded by ImageIO.
+     *
+     * @param rendition     the rendition
+     * @param region        the region of the rendition to decode (crop), or {@code null} for the whole rendition
+     * @param resizeWidth   the width the layer will be resized to, or 0 if the layer will not be resized
+     * @param rotationAngle the rotation that will be applied to the layer, in degrees
+     * @return a layer for the rendition, or {@code null} if the rendition is not supported
+     * @throws IOException when the rendition cannot be subsampled and is too large for processing
+     */
+    @Nullable
+    private Layer getLayer(@NotNull EnhancedRendition rendition, @Nullable Rectangle region, int resizeWidth, int rotationAngle)
+            throws IOException {
+        Dimension dimension = rendition.getDimension();
+        boolean oversized = dimension != null && dimension.width > maxInputWidth;
+        boolean subsample = oversized || (dimension != null && resizeWidth > 0 &&
+                SubsampledImageReader.getSubsampling(dimension.width, dimension.width, resizeWidth, maxInputWidth) > 1);
+        if ((subsample || region != null) && SubsampledImageReader.canRead(rendition.getMimeType())) {
+            try (InputStream is = rendition.getStream()) {
+                if (is != null) {
+                    BufferedImage image = SubsampledImageReader.read(is, region, resizeWidth, rotationAngle, maxInputWidth);
+                    if (image != null) {
+                        LOGGER.debug("Decoded rendition {} ({}) as {}x{}px.", rendition.getPath(), dimension, image.getWidth(),
+                                image.getHeight());
+                        return new Layer(image);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("Unable to decode rendition {} with ImageIO, falling back to its asset handler.", rendition.getPath(), e);
+            }
+        }
+        if (oversized) {
+            metrics.markRejectedTooLargeRendition();
+            throw new IOException(String.format("Cannot process rendition %s due to size %s", rendition.getName(), dimension));
+        }
+        Layer layer = getLayer(rendition);
+        if (layer != null && region != null) {
+            layer.crop(region);
+        }
+        return layer;
+    }
+
     /**
      * Given an {@link Asset}, this method will return the WCM rendition (cq5dam.web.*)
      *
@@ -502,35 +670,25 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      */
     @NotNull
     protected EnhancedRendition getBestRendition(@NotNull Asset asset, int width, @NotNull String mimeType) throws IOException {
-        // Sort renditions by file dimension
-        SortedSet<EnhancedRendition> matchingRenditions = new TreeSet<>(Comparator.comparingInt(o -> o.getDimension() == null ? 0 : o.getDimension().width));
-        SortedSet<EnhancedRendition> nonMatchingRenditions = new TreeSet<>(Comparator.comparingInt(o -> o.getDimension() == null ? 0 : o.getDimension().width));
-
-        for (Rendition rendition : asset.getRenditions()) {
-            EnhancedRendition enhancedRendition = new EnhancedRendition(rendition);
-            if (mimeType.equals(rendition.getMimeType())) {
-                matchingRenditions.add(enhancedRendition);
-            } else {
-                nonMatchingRenditions.add(enhancedRendition);
-            }
-
-        }
+        // Renditions sorted by width
+        RenditionDimensionIndex.Renditions renditions = renditionDimensionIndex != null ? renditionDimensionIndex.get(asset) :
+                RenditionDimensionIndex.build(asset);
         EnhancedRendition bestRendition;
-        if (!matchingRenditions.isEmpty()) {
+        if (renditions.hasMimeType(mimeType)) {
             // Find first rendition in mime-type matching set that has a width larger or equal than wanted
-            bestRendition = findBestRendition(matchingRenditions, width);
+            bestRendition = findBestRendition(asset, renditions, renditions.find(width, mimeType, true));
 
             if (bestRendition == null) {
                 // If no rendition is found for the desired width, use either the original rendition or the largest rendition
                 if (mimeType.equals(asset.getMimeType())) {
                     bestRendition = getOriginal(asset);
                 } else {
-                    bestRendition = matchingRenditions.last();
+                    bestRendition = getIndexedRendition(asset, renditions, renditions.findWidest(mimeType));
                 }
             }
         } else {
             // Also try to find a suitable rendition that does not match the mime-type
-            bestRendition = findBestRendition(nonMatchingRenditions, width);
+            bestRendition = findBestRendition(asset, renditions, renditions.find(width, mimeType, false));
 
             // If no rendition was found, attempt to use original
             if (bestRendition == null) {
@@ -541,26 +699,38 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
     }
 
     /**
-     * Tries to find first suitable renditions in a sorted set that has a width higher or equal than desired width
+     * Resolves the rendition found in the {@link RenditionDimensionIndex}, marking the use of the original rendition.
      *
-     * @param renditions Sorted set of renditions
-     * @param width The desired minimum width
-     * @return The first rendition with a width higher or equal than the desired width, {@code null} if none found
+     * @param asset the asset
+     * @param renditions the indexed renditions of the asset
+     * @param index the index of the found rendition, or {@code -1} if none was found
+     * @return The found rendition, {@code null} if none found
      */
     @Nullable
-    private EnhancedRendition findBestRendition(SortedSet<EnhancedRendition> renditions, int width) {
-        for (EnhancedRendition rendition : renditions) {
-            Dimension dimension = rendition.getDimension();
-            if (dimension != null) {
-                if (dimension.getWidth() >= width) {
-                    if (StringUtils.equals(rendition.getPath(), rendition.getAsset().getOriginal().getPath())) {
-                        metrics.markOriginalRenditionUsed();
-                    }
-                    return rendition;
-                }
+    private EnhancedRendition findBestRendition(@NotNull Asset asset, @NotNull RenditionDimensionIndex.Renditions renditions, int index)
+            throws IOException {
+        EnhancedRendition rendition = getIndexedRendition(asset, renditions, index);
+        if (rendition != null && StringUtils.equals(rendition.getPath(), asset.getOriginal().getPath())) {
+            metrics.markOriginalRenditionUsed();
+        }
+        return rendition;
+    }
+
+    @Nullable
+    private EnhancedRendition getIndexedRendition(@NotNull Asset asset, @NotNull RenditionDimensionIndex.Renditions renditions, int index)
+            throws IOException {
+        if (index < 0) {
+            return null;
+        }
+        EnhancedRendition rendition = renditions.getRendition(asset, index);
+        if (rendition == null) {
+            // the index is outdated, the rendition was removed in the meantime
+            if (renditionDimensionIndex != null) {
+                renditionDimensionIndex.invalidate(asset.getPath());
             }
+            throw new IOException(String.format("Rendition %d of asset %s was removed while being rendered", index, asset.getPath()));
         }
-        return null;
+        return rendition;
     }
 
     /**
@@ -579,7 +749,8 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
     }
 
     /**
-     * Given a {@link EnhancedRendition} it will check its size to see if it's too large for processing.
+     * Given a {@link EnhancedRendition} it will check its size to see if it's too large for processing. Renditions larger than the
+     * maximum processed width are accepted if they can be subsampled when decoded.
      *
      * @param rendition the rendition that needs to be checked
      * @return the rendition if it's not too large
@@ -592,6 +763,10 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
         if (dimension != null && dimension.getWidth() <= maxInputWidth) {
             return rendition;
         }
+        if (dimension != null && SubsampledImageReader.canRead(rendition.getMimeType())) {
+            LOGGER.debug("Rendition {} is larger than {}px and will be subsampled when decoded.", rendition.getPath(), maxInputWidth);
+            return rendition;
+        }
         metrics.markRejectedTooLargeRendition();
         throw new IOException(String.format("Cannot process rendition %s due to size %s", rendition.getName(), rendition.getDimension()));
     }
@@ -615,18 +790,18 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                     rendition.getAsset().getPath(), rendition.getName(), dimension != null ? dimension.getWidth() : null, resizeWidth);
             try (InputStream is = rendition.getStream()) {
                 if (is != null) {
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, rendition.getSize(), imageType, imageName);
                 }
             }
         } else {
-            Layer layer = getLayer(rendition);
+            Layer layer = getLayer(rendition, null, 0, 0);
             if (layer == null) {
                 LOGGER.warn("Found rendition {}/{} has a width of {}px and does not require a resize for requested width of {}px " +
                                 "but the rendition is not of the requested type {}, cannot convert so serving as is",
                         rendition.getAsset().getPath(), rendition.getName(), dimension != null ? dimension.getWidth() : null, resizeWidth, imageType);
                 try (InputStream is = rendition.getStream()) {
                     if (is != null) {
-                        stream(response, is, rendition.getMimeType(), imageName);
+                        stream(response, is, rendition.getSize(), rendition.getMimeType(), imageName);
                     }
                 }
             } else {
@@ -639,69 +814,133 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
     }
 
     /**
-     * Stream an image from the given input stream.
+     * Stream an image from the given input stream. If the length of the image is known, the {@code Content-Length} header is set and
+     * the {@code Range} header of the request, if any, is honoured.
      *
      * @param response the {@link HttpServletResponse} to write the image to
      * @param inputStream the input stream to read the image from
+     * @param length the length of the image in bytes, or a negative value if unknown
      * @param contentType the mime type of the image
      * @param imageName the name of the image
      * @throws IOException
      */
     @SuppressWarnings("deprecation")
-    private void stream(@NotNull SlingHttpServletResponse response, @NotNull InputStream inputStream, @NotNull String contentType,
-                        String imageName)
+    private void stream(@NotNull SlingHttpServletResponse response, @NotNull InputStream inputStream, long length,
+                        @NotNull String contentType, String imageName)
             throws IOException {
         response.setContentType(contentType);
-        String extension = mimeTypeService.getExtension(contentType);
-        String disposition = "svg".equalsIgnoreCase(extension) ? "attachment" : "inline";
+        String disposition = getDispositionType(contentType);
         response.setHeader("Content-Disposition", disposition + "; filename=" + URLEncoder.encode(imageName, CharEncoding.UTF_8));
-        IOUtils.copy(inputStream, response.getOutputStream());
+        if (length < 0) {
+            IOUtils.copyLarge(inputStream, response.getOutputStream(), new byte[ByteRange.BUFFER_SIZE]);
+            return;
+        }
+        String rangeHeader = response instanceof RenditionCapturingResponse ? ((RenditionCapturingResponse) response).getRangeHeader() : null;
+        ByteRange range = ByteRange.prepare(response, rangeHeader, length);
+        if (range != null) {
+            range.copy(inputStream, response.getOutputStream());
+        }
+    }
+
+    private void applyCachingHeaders(@NotNull SlingHttpServletResponse response, @Nullable String etag, boolean fingerprinted) {
+        if (cachingPolicy != null && etag != null) {
+            cachingPolicy.applyHeaders(response, etag, fingerprinted);
+        }
     }
 
     /**
-     * Retrieves the cropping rectangle, if one is defined for the image.
+     * Stream a rendition from the {@link AdaptiveImageRenditionCache}. Cached renditions may have been rendered, so their bytes are not
+     * guaranteed to match a previous response for the same URL and {@code Range} requests are answered with the whole rendition.
      *
-     * @param properties the image component's properties
-     * @return the cropping rectangle, if one is found, {@code null} otherwise
+     * @param response the {@link HttpServletResponse} to write the image to
+     * @param cachedRendition the cached rendition
+     * @param imageName the name of the image
+     * @param etag the entity tag of the rendition, if the caching policy is enabled
+     * @param fingerprinted {@code true} if the request's URL contains the rendition's last modification date
+     * @return {@code true} if the rendition was streamed, {@code false} if it was evicted in the meantime
+     * @throws IOException
      */
-    private Rectangle getCropRect(@NotNull ValueMap properties) {
-        String csv = properties.get(ImageResource.PN_IMAGE_CROP, String.class);
-        if (StringUtils.isNotEmpty(csv)) {
-            try {
-                int ratio = csv.indexOf('/');
-                if (ratio >= 0) {
-                    // skip ratio
-                    csv = csv.substring(0, ratio);
-                }
-                String[] coords = csv.split(",");
-                int x1 = Integer.parseInt(coords[0]);
-                int y1 = Integer.parseInt(coords[1]);
-                int x2 = Integer.parseInt(coords[2]);
-                int y2 = Integer.parseInt(coords[3]);
-                return new Rectangle(x1, y1, x2 - x1, y2 - y1);
-            } catch (RuntimeException e) {
-                LOGGER.warn(String.format("Invalid cropping rectangle %s.", csv), e);
-            }
+    private boolean streamCachedRendition(@NotNull SlingHttpServletResponse response,
+                                          @NotNull AdaptiveImageRenditionCache.CachedRendition cachedRendition, String imageName,
+                                          @Nullable String etag, boolean fingerprinted)
+            throws IOException {
+        InputStream inputStream;
+        try {
+            inputStream = cachedRendition.openStream();
+        } catch (NoSuchFileException e) {
+            LOGGER.debug("Cached rendition {} was evicted, rendering it again.", cachedRendition.getFile());
+            return false;
         }
-        return null;
+        try (InputStream is = inputStream) {
+            setRenditionHeaders(response, cachedRendition.getContentType(), cachedRendition.getDispositionType(), imageName);
+            applyCachingHeaders(response, etag, fingerprinted);
+            ByteRange.whole(response, cachedRendition.getSize()).copy(is, response.getOutputStream());
+        }
+        return true;
     }
 
     /**
-     * Retrieves the rotation angle for the image, if one is present. Typically this should be a value between 0 and 360.
+     * Stream a rendition rendered by a concurrent request for the same image. Like cached renditions, shared renditions are always
+     * streamed whole.
      *
-     * @param properties the image component's properties
-     * @return the rotation angle
+     * @param response the {@link HttpServletResponse} to write the image to
+     * @param rendition the shared rendition
+     * @param imageName the name of the image
+     * @param etag the entity tag of the rendition, if the caching policy is enabled
+     * @param fingerprinted {@code true} if the request's URL contains the rendition's last modification date
+     * @throws IOException
      */
-    private int getRotation(@NotNull ValueMap properties) {
-        String rotationString = properties.get(ImageResource.PN_IMAGE_ROTATE, String.class);
-        if (rotationString != null) {
-            try {
-                return Integer.parseInt(rotationString);
-            } catch (NumberFormatException e) {
-                LOGGER.warn(String.format("Invalid rotation value %s.", rotationString), e);
+    private void streamSharedRendition(@NotNull SlingHttpServletResponse response, @NotNull RenditionSingleFlight.Rendition rendition,
+                                       String imageName, @Nullable String etag, boolean fingerprinted)
+            throws IOException {
+        setRenditionHeaders(response, rendition.getContentType(), rendition.getDispositionType(), imageName);
+        applyCachingHeaders(response, etag, fingerprinted);
+        ByteRange.whole(response, rendition.getLength()).write(rendition.getData(), response.getOutputStream());
+    }
+
+    @SuppressWarnings("deprecation")
+    private void setRenditionHeaders(@NotNull SlingHttpServletResponse response, @NotNull String contentType, String dispositionType,
+                                     String imageName) throws IOException {
+        response.setContentType(contentType);
+        if (dispositionType != null) {
+            response.setHeader("Content-Disposition", dispositionType + "; filename=" + URLEncoder.encode(imageName, CharEncoding.UTF_8));
+        }
+    }
+
+    /**
+     * Estimates the number of source pixels decoded to render an image. For assets, the original's dimensions are used, capped to the
+     * maximum width the servlet processes; otherwise the requested width is used for both dimensions.
+     *
+     * @param asset       the rendered asset, if any
+     * @param resizeWidth the resize width, in pixels
+     * @return the estimated number of decoded pixels
+     */
+    private long estimateDecodedPixels(@Nullable Asset asset, int resizeWidth) {
+        if (asset != null) {
+            long width = getDimension(asset.getMetadataValue(DamConstants.TIFF_IMAGEWIDTH));
+            long height = getDimension(asset.getMetadataValue(DamConstants.TIFF_IMAGELENGTH));
+            if (width > 0 && height > 0) {
+                if (width > maxInputWidth) {
+                    height = height * maxInputWidth / width;
+                    width = maxInputWidth;
+                }
+                return width * height;
             }
         }
-        return 0;
+        long width = resizeWidth > 0 ? resizeWidth : defaultResizeWidth;
+        return width * width;
+    }
+
+    /**
+     * Returns the {@code Content-Disposition} type of an image: SVGs are served as attachments, all other images inline.
+     *
+     * @param contentType the mime type of the image
+     * @return the disposition type
+     */
+    @NotNull
+    private String getDispositionType(@NotNull String contentType) {
+        String extension = mimeTypeService.getExtension(contentType);
+        return "svg".equalsIgnoreCase(extension) ? "attachment" : "inline";
     }
 
     /**
@@ -762,6 +1001,11 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
     private boolean handleIfModifiedSinceHeader(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response,
                                                 long lastModified) {
         if (lastModified > 0) {
+            if (cachingPolicy != null && request.getHeader(AdaptiveImageCachingPolicy.HEADER_IF_NONE_MATCH) != null) {
+                // If-None-Match takes precedence over If-Modified-Since and is evaluated against the rendition's ETag
+                response.setDateHeader(HttpConstants.HEADER_LAST_MODIFIED, lastModified);
+                return false;
+            }
             long ifModifiedSince = request.getDateHeader(HttpConstants.HEADER_IF_MODIFIED_SINCE) / 1000;
             if (lastModified / 1000 <= ifModifiedSince) {
                 response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
@@ -781,9 +1025,93 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
         if ("tiff".equalsIgnoreCase(ext) || "tif".equalsIgnoreCase(ext)) {
             return DEFAULT_MIME;
         }
+        if ("webp".equalsIgnoreCase(ext) || "avif".equalsIgnoreCase(ext)) {
+            String imageType = "webp".equalsIgnoreCase(ext) ? MIME_TYPE_WEBP : MIME_TYPE_AVIF;
+            if (ImageIOEncoder.canWrite(imageType)) {
+                return imageType;
+            }
+            LOGGER.debug("No image writer is installed for {}; rendering {} instead.", imageType, DEFAULT_MIME);
+            return DEFAULT_MIME;
+        }
         return mimeTypeService.getMimeType(ext);
     }
 
+    /**
+     * Checks if the response type of an image can depend on the request's {@code Accept} header, i.e. if one of the configured
+     * negotiated image types other than {@code imageType} can be written.
+     *
+     * @param imageType the mime type corresponding to the request's extension
+     * @return {@code true} if the response type has to be negotiated, {@code false} otherwise
+     */
+    private boolean isNegotiable(@NotNull String imageType) {
+        if (!NEGOTIABLE_SOURCE_TYPES.contains(imageType)) {
+            return false;
+        }
+        for (String negotiatedImageType : negotiatedImageTypes) {
+            if (!negotiatedImageType.equals(imageType) && ImageIOEncoder.canWrite(negotiatedImageType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the first of the configured negotiated image types that is accepted by the client, according to the request's
+     * {@code Accept} header, and for which an image writer is installed.
+     *
+     * @param request   the request
+     * @param imageType the mime type corresponding to the request's extension
+     * @return the negotiated mime type, or {@code imageType} if none of the negotiated types is acceptable
+     */
+    @NotNull
+    private String negotiateImageType(@NotNull SlingHttpServletRequest request, @NotNull String imageType) {
+        String accept = request.getHeader("Accept");
+        if (StringUtils.isEmpty(accept)) {
+            return imageType;
+        }
+        List<String> acceptedTypes = new ArrayList<>();
+        for (String mediaRange : accept.split(",")) {
+            String[] parameters = mediaRange.split(";");
+            boolean refused = false;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(parameter.substring(2).trim()) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (!refused) {
+                acceptedTypes.add(parameters[0].trim().toLowerCase());
+            }
+        }
+        for (String negotiatedImageType : negotiatedImageTypes) {
+            if (acceptedTypes.contains(negotiatedImageType) && ImageIOEncoder.canWrite(negotiatedImageType)) {
+                return negotiatedImageType;
+            }
+        }
+        return imageType;
+    }
+
+    /**
+     * Writes a layer, using the ImageIO writer plugins for the formats {@link Layer} cannot write.
+     *
+     * @param layer     the layer
+     * @param imageType the mime type of the written image
+     * @param quality   the quality, between 0 and 1
+     * @param out       the stream to write the image to
+     * @throws IOException if the layer cannot be written
+     */
+    private void writeLayer(@NotNull Layer layer, @NotNull String imageType, double quality, @NotNull OutputStream out) throws IOException {
+        if (MIME_TYPE_WEBP.equals(imageType) || MIME_TYPE_AVIF.equals(imageType)) {
+            ImageIOEncoder.write(layer.getImage(), imageType, quality, out);
+        } else {
+            layer.write(imageType, quality, out);
+        }
+    }
+
     /**
      * Returns the content policy bound to the given component.
      *
@@ -1007,13 +1335,13 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
         Source source = Source.NONEXISTING;
         Resource imageResource;
 
-        ImageComponent(@NotNull Resource component) {
+        ImageComponent(@NotNull Resource component, @NotNull AssetResolutionCache assetResolutionCache) {
             String fileReference = component.getValueMap().get(DownloadResource.PN_REFERENCE, String.class);
             Resource childFileNode = component.getChild(DownloadResource.NN_FILE);
             if (StringUtils.isEmpty(fileReference) && childFileNode == null) {
                 source = Source.NOCONTENT;
             } else if (StringUtils.isNotEmpty(fileReference)) {
-                imageResource = component.getResourceResolver().getResource(fileReference);
+                imageResource = assetResolutionCache.getResource(fileReference);
                 if (imageResource != null) {
                     source = Source.ASSET;
                 }
@@ -76,6 +76,12 @@ public class AdaptiveImageServletMappingConfigurationConsumer {
     @Reference
     AdaptiveImageServletMetrics metrics;
 
+    @Reference
+    AdaptiveImageRenditionCache renditionCache;
+
+    @Reference
+    RenditionDimensionIndex renditionDimensionIndex;
+
 
     /**
      * Activation method
@@ -171,8 +177,22 @@ public class AdaptiveImageServletMappingConfigurationConsumer {
                                         mimeTypeService,
                                         assetStore,
                                         metrics,
+                                        renditionCache,
                                         oldAISDefaultResizeWidth > 0 ? oldAISDefaultResizeWidth : config.getDefaultResizeWidth(),
-                                        config.getMaxSize()),
+                                        config.getMaxSize(),
+                                        new RenditionAdmission(
+                                                config.getMaxConcurrentRenders(),
+                                                config.getMaxQueuedRenders(),
+                                                config.getMaxPixelsInFlight() * 1000000L,
+                                                config.getRenderQueueTimeout(),
+                                                metrics),
+                                        config.getNegotiatedImageTypes(),
+                                        new AdaptiveImageCachingPolicy(
+                                                config.getCacheMaxAge(),
+                                                config.getCacheFingerprintedMaxAge(),
+                                                config.isCacheImmutable(),
+                                                config.getCacheStaleWhileRevalidate()),
+                                        renditionDimensionIndex),
                                 properties
                         )
                 );
@@ -81,6 +81,68 @@ public class AdaptiveImageServletMappingConfigurationFactory {
         )
         int maxSize() default AdaptiveImageServlet.DEFAULT_MAX_SIZE;
 
+        @AttributeDefinition(
+                name = "Maximum concurrent renders",
+                description = "The maximum number of images transformed at the same time by this servlet. If not positive, the number of " +
+                        "available processors is used."
+        )
+        int maxConcurrentRenders() default 0;
+
+        @AttributeDefinition(
+                name = "Maximum queued renders",
+                description = "The maximum number of image transformations waiting for a free render slot. Further requests are rejected " +
+                        "with a 503 status code."
+        )
+        int maxQueuedRenders() default AdaptiveImageServlet.DEFAULT_MAX_QUEUED_RENDERS;
+
+        @AttributeDefinition(
+                name = "Maximum pixels in flight (megapixels)",
+                description = "The maximum number of source pixels decoded at the same time by this servlet, in megapixels. If not " +
+                        "positive, the decoded pixels are not limited."
+        )
+        int maxPixelsInFlight() default AdaptiveImageServlet.DEFAULT_MAX_PIXELS_IN_FLIGHT;
+
+        @AttributeDefinition(
+                name = "Render queue timeout",
+                description = "The maximum time, in milliseconds, an image transformation waits for a free render slot before being " +
+                        "rejected with a 503 status code."
+        )
+        long renderQueueTimeout() default AdaptiveImageServlet.DEFAULT_RENDER_QUEUE_TIMEOUT;
+
+        @AttributeDefinition(
+                name = "Negotiated image types",
+                description = "List of mime types (e.g. image/avif, image/webp), in order of preference, in which JPEG and PNG images are " +
+                        "rendered when the client accepts them. Only the types for which an ImageIO writer is installed are used."
+        )
+        String[] negotiatedImageTypes() default {};
+
+        @AttributeDefinition(
+                name = "Max age",
+                description = "The max-age, in seconds, of the Cache-Control header sent with images whose URL does not contain their " +
+                        "last modification date. If negative, no Cache-Control header is sent for them."
+        )
+        int cacheMaxAge() default AdaptiveImageServlet.DEFAULT_CACHE_MAX_AGE;
+
+        @AttributeDefinition(
+                name = "Stale while revalidate",
+                description = "The stale-while-revalidate period, in seconds, of the Cache-Control header sent with images whose URL " +
+                        "does not contain their last modification date. Disabled if not positive."
+        )
+        int cacheStaleWhileRevalidate() default 0;
+
+        @AttributeDefinition(
+                name = "Fingerprinted max age",
+                description = "The max-age, in seconds, of the Cache-Control header sent with images whose URL contains their last " +
+                        "modification date. If negative, no Cache-Control header is sent for them."
+        )
+        int cacheFingerprintedMaxAge() default AdaptiveImageServlet.DEFAULT_CACHE_FINGERPRINTED_MAX_AGE;
+
+        @AttributeDefinition(
+                name = "Immutable fingerprinted images",
+                description = "Marks the images whose URL contains their last modification date as immutable."
+        )
+        boolean cacheImmutable() default true;
+
     }
 
     private List<String> resourceTypes;
@@ -93,6 +155,24 @@ public class AdaptiveImageServletMappingConfigurationFactory {
 
     private int maxSize;
 
+    private int maxConcurrentRenders;
+
+    private int maxQueuedRenders;
+
+    private int maxPixelsInFlight;
+
+    private long renderQueueTimeout;
+
+    private List<String> negotiatedImageTypes;
+
+    private int cacheMaxAge;
+
+    private int cacheStaleWhileRevalidate;
+
+    private int cacheFingerprintedMaxAge;
+
+    private boolean cacheImmutable;
+
     /**
      * Invoked when a configuration is created or modified.
      *
@@ -106,6 +186,18 @@ public class AdaptiveImageServletMappingConfigurationFactory {
         extensions = getValues(config.extensions());
         defaultResizeWidth = config.defaultResizeWidth();
         maxSize = config.maxSize();
+        maxConcurrentRenders = config.maxConcurrentRenders();
+        maxQueuedRenders = config.maxQueuedRenders();
+        maxPixelsInFlight = config.maxPixelsInFlight();
+        renderQueueTimeout = config.renderQueueTimeout();
+        negotiatedImageTypes = new ArrayList<>();
+        for (String negotiatedImageType : getValues(config.negotiatedImageTypes())) {
+            negotiatedImageTypes.add(negotiatedImageType.toLowerCase());
+        }
+        cacheMaxAge = config.cacheMaxAge();
+        cacheStaleWhileRevalidate = config.cacheStaleWhileRevalidate();
+        cacheFingerprintedMaxAge = config.cacheFingerprintedMaxAge();
+        cacheImmutable = config.cacheImmutable();
     }
 
     /**
@@ -155,6 +247,80 @@ public class AdaptiveImageServletMappingConfigurationFactory {
         return maxSize;
     }
 
+    /**
+     * Returns the maximum number of images that the {@link AdaptiveImageServlet} will transform at the same time.
+     * @return
+     */
+    public int getMaxConcurrentRenders() {
+        return maxConcurrentRenders;
+    }
+
+    /**
+     * Returns the maximum number of image transformations that will wait for a free render slot.
+     * @return
+     */
+    public int getMaxQueuedRenders() {
+        return maxQueuedRenders;
+    }
+
+    /**
+     * Returns the maximum number of source megapixels that the {@link AdaptiveImageServlet} will decode at the same time.
+     * @return
+     */
+    public int getMaxPixelsInFlight() {
+        return maxPixelsInFlight;
+    }
+
+    /**
+     * Returns the maximum time, in milliseconds, an image transformation will wait for a free render slot.
+     * @return
+     */
+    public long getRenderQueueTimeout() {
+        return renderQueueTimeout;
+    }
+
+    /**
+     * Getter for the image types negotiated with the clients.
+     *
+     * @return {@link List} of mime types, in order of preference
+     */
+    @NotNull
+    public List<String> getNegotiatedImageTypes() {
+        return Collections.unmodifiableList(this.negotiatedImageTypes);
+    }
+
+    /**
+     * Returns the max-age, in seconds, of the images whose URL does not contain their last modification date.
+     * @return
+     */
+    public int getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /**
+     * Returns the stale-while-revalidate period, in seconds, of the images whose URL does not contain their last modification date.
+     * @return
+     */
+    public int getCacheStaleWhileRevalidate() {
+        return cacheStaleWhileRevalidate;
+    }
+
+    /**
+     * Returns the max-age, in seconds, of the images whose URL contains their last modification date.
+     * @return
+     */
+    public int getCacheFingerprintedMaxAge() {
+        return cacheFingerprintedMaxAge;
+    }
+
+    /**
+     * Returns {@code true} if the images whose URL contains their last modification date are marked as immutable.
+     * @return
+     */
+    public boolean isCacheImmutable() {
+        return cacheImmutable;
+    }
+
     /**
      * Internal helper for filtering out null and empty values from the configuration options.
      *
@@ -176,6 +342,9 @@ public class AdaptiveImageServletMappingConfigurationFactory {
     @Override
     public String toString() {
         return "{resourceTypes: " + resourceTypes.toString() + ", selectors: " + selectors.toString() + ", extensions: " + extensions
-                .toString() + ", defaultResizeWidth: " + defaultResizeWidth + "}";
+                .toString() + ", defaultResizeWidth: " + defaultResizeWidth + ", maxConcurrentRenders: " + maxConcurrentRenders + ", maxQueuedRenders: " +
+                maxQueuedRenders + ", maxPixelsInFlight: " + maxPixelsInFlight + ", renderQueueTimeout: " + renderQueueTimeout + ", negotiatedImageTypes: " +
+                negotiatedImageTypes + ", cacheMaxAge: " + cacheMaxAge + ", cacheStaleWhileRevalidate: " + cacheStaleWhileRevalidate +
+                ", cacheFingerprintedMaxAge: " + cacheFingerprintedMaxAge + ", cacheImmutable: " + cacheImmutable + "}";
     }
 }
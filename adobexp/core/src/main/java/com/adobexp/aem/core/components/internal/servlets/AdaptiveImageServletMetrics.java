@@ -42,6 +42,26 @@ public class AdaptiveImageServletMetrics {
     private Timer requestDuration;
     // how often the image couldn't served
     private Counter imageErrors;
+    // how often a rendition was served from the rendition cache
+    private Counter renditionCacheHits;
+    // how often a rendition was not found in the rendition cache
+    private Counter renditionCacheMisses;
+    // how many renditions were evicted from the rendition cache
+    private Counter renditionCacheEvictions;
+    // how often a request waited for a concurrent request rendering the same rendition
+    private Counter renditionWaits;
+    // how often a request was served with the rendition rendered by a concurrent request
+    private Counter renditionCoalesced;
+    // the number of renders waiting for a free render slot
+    private Counter renditionQueueDepth;
+    // how often a render was rejected because no render slot became available
+    private Counter renditionRejected;
+    // how many images and assets were queued for the rendition warm-up
+    private Counter warmupQueued;
+    // how many renditions were rendered by the rendition warm-up
+    private Counter warmupRendered;
+    // how many renditions the rendition warm-up failed to render
+    private Counter warmupFailed;
     
     @Activate
     public void activate() {
@@ -51,6 +71,16 @@ public class AdaptiveImageServletMetrics {
         imageStreamed = metricsService.counter(BASENAME + "rendition-rendered");
         requestDuration = metricsService.timer(BASENAME + "request-duration");
         imageErrors = metricsService.counter(BASENAME + "image-errors");
+        renditionCacheHits = metricsService.counter(BASENAME + "rendition-cache-hits");
+        renditionCacheMisses = metricsService.counter(BASENAME + "rendition-cache-misses");
+        renditionCacheEvictions = metricsService.counter(BASENAME + "rendition-cache-evictions");
+        renditionWaits = metricsService.counter(BASENAME + "rendition-waits");
+        renditionCoalesced = metricsService.counter(BASENAME + "rendition-coalesced");
+        renditionQueueDepth = metricsService.counter(BASENAME + "render-queue-depth");
+        renditionRejected = metricsService.counter(BASENAME + "render-rejected");
+        warmupQueued = metricsService.counter(BASENAME + "warmup-queued");
+        warmupRendered = metricsService.counter(BASENAME + "warmup-rendered");
+        warmupFailed = metricsService.counter(BASENAME + "warmup-failed");
     }
     
     public void markServletInvocation() {
@@ -72,6 +102,50 @@ public class AdaptiveImageServletMetrics {
     public void markImageErrors() {
         imageErrors.increment();
     }
+
+    public void markRenditionCacheHit() {
+        renditionCacheHits.increment();
+    }
+
+    public void markRenditionCacheMiss() {
+        renditionCacheMisses.increment();
+    }
+
+    public void markRenditionCacheEvictions(int count) {
+        renditionCacheEvictions.increment(count);
+    }
+
+    public void markRenditionWait() {
+        renditionWaits.increment();
+    }
+
+    public void markRenditionCoalesced() {
+        renditionCoalesced.increment();
+    }
+
+    public void incrementRenditionQueueDepth() {
+        renditionQueueDepth.increment();
+    }
+
+    public void decrementRenditionQueueDepth() {
+        renditionQueueDepth.decrement();
+    }
+
+    public void markRenditionRejected() {
+        renditionRejected.increment();
+    }
+
+    public void markWarmupQueued() {
+        warmupQueued.increment();
+    }
+
+    public void markWarmupRendered() {
+        warmupRendered.increment();
+    }
+
+    public void markWarmupFailed() {
+        warmupFailed.increment();
+    }
     
     public Timer.Context startDurationRecording() {
         return requestDuration.time();
@@ -0,0 +1,202 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A single byte range of a binary of known length, as requested through the HTTP {@code Range} header. Requests for multiple ranges
+ * are answered with the whole binary.
+ */
+final class ByteRange {
+
+    static final String HEADER_RANGE = "Range";
+    static final String HEADER_IF_RANGE = "If-Range";
+    static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+    /**
+     * The size of the buffers used to copy binaries.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String BYTES_UNIT = "bytes";
+    private static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the {@code Range} header of a request, unless the request's {@code If-Range} header doesn't match the entity tag of the
+     * streamed binary. {@code If-Range} requires a strong comparison, so it never matches a weak entity tag.
+     *
+     * @param request the request
+     * @param etag    the entity tag of the streamed binary, if known
+     * @return the {@code Range} header, or {@code null} if the whole binary has to be streamed
+     */
+    @Nullable
+    static String getRangeHeader(@NotNull SlingHttpServletRequest request, @Nullable String etag) {
+        String range = request.getHeader(HEADER_RANGE);
+        if (StringUtils.isEmpty(range)) {
+            return null;
+        }
+        String ifRange = request.getHeader(HEADER_IF_RANGE);
+        if (StringUtils.isNotEmpty(ifRange) && (etag == null || etag.startsWith(AdaptiveImageCachingPolicy.WEAK_PREFIX)
+                || !etag.equals(ifRange.trim()))) {
+            return null;
+        }
+        return range;
+    }
+
+    /**
+     * Parses a {@code Range} header.
+     *
+     * @param header the header value
+     * @param length the length of the binary, in bytes
+     * @return the requested range, {@link #UNSATISFIABLE} if the range is outside of the binary, or {@code null} if the header is
+     * missing, malformed or requests multiple ranges
+     */
+    @Nullable
+    static ByteRange parse(@Nullable String header, long length) {
+        if (StringUtils.isEmpty(header) || !header.startsWith(BYTES_UNIT + "=")) {
+            return null;
+        }
+        String spec = header.substring(BYTES_UNIT.length() + 1).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            long start;
+            long end = length - 1;
+            if (first.isEmpty()) {
+                // suffix range: the last N bytes
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffixLength);
+            } else {
+                start = Long.parseLong(first);
+                if (!last.isEmpty()) {
+                    long lastByte = Long.parseLong(last);
+                    if (lastByte < start) {
+                        return null;
+                    }
+                    end = Math.min(lastByte, end);
+                }
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the status and the {@code Accept-Ranges}, {@code Content-Length} and {@code Content-Range} headers of a response streaming a
+     * binary of known length.
+     *
+     * @param response    the response
+     * @param rangeHeader the request's {@code Range} header, as returned by {@link #getRangeHeader(SlingHttpServletRequest, String)}
+     * @param length      the length of the binary, in bytes
+     * @return the range to stream, or {@code null} if the request was answered with a {@code 416} status code
+     * @throws IOException if the error cannot be sent
+     */
+    @Nullable
+    static ByteRange prepare(@NotNull SlingHttpServletResponse response, @Nullable String rangeHeader, long length) throws IOException {
+        response.setHeader(HEADER_ACCEPT_RANGES, BYTES_UNIT);
+        ByteRange range = parse(rangeHeader, length);
+        if (range == UNSATISFIABLE) {
+            response.setHeader(HEADER_CONTENT_RANGE, BYTES_UNIT + " */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return null;
+        }
+        if (range == null) {
+            range = new ByteRange(0, length - 1);
+        } else {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HEADER_CONTENT_RANGE, BYTES_UNIT + " " + range.start + "-" + range.end + "/" + length);
+        }
+        response.setContentLengthLong(range.getLength());
+        return range;
+    }
+
+    /**
+     * Prepares a response streaming a whole binary, without advertising range support, for binaries whose bytes are not guaranteed to
+     * be the same across requests (e.g. rendered images).
+     *
+     * @param response the response
+     * @param length   the length of the binary, in bytes
+     * @return the range covering the whole binary
+     */
+    @NotNull
+    static ByteRange whole(@NotNull SlingHttpServletResponse response, long length) {
+        response.setContentLengthLong(length);
+        return new ByteRange(0, length - 1);
+    }
+
+    long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Copies the range of a stream.
+     *
+     * @param in  the stream, positioned at the start of the binary
+     * @param out the stream to copy the range to
+     * @throws IOException if the range cannot be copied
+     */
+    void copy(@NotNull InputStream in, @NotNull OutputStream out) throws IOException {
+        if (getLength() > 0) {
+            IOUtils.copyLarge(in, out, start, getLength(), new byte[BUFFER_SIZE]);
+        }
+    }
+
+    /**
+     * Writes the range of an array.
+     *
+     * @param data the array holding the binary
+     * @param out  the stream to write the range to
+     * @throws IOException if the range cannot be written
+     */
+    void write(byte @NotNull [] data, @NotNull OutputStream out) throws IOException {
+        out.write(data, (int) start, (int) getLength());
+    }
+}
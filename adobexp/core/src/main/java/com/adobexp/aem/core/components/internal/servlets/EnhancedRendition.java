@@ -45,6 +45,18 @@ public class EnhancedRendition {
         this.rendition = rendition;
     }
 
+    /**
+     * Creates an enhanced rendition whose dimension is already known, e.g. from the {@link RenditionDimensionIndex}.
+     *
+     * @param rendition the rendition
+     * @param dimension the rendition's dimension, or {@code null} if it cannot be determined
+     */
+    EnhancedRendition(@NotNull Rendition rendition, @Nullable Dimension dimension) {
+        this.rendition = rendition;
+        this.dimension = dimension;
+        this.dimensionProcessed = true;
+    }
+
     /**
      * Getter for the rendition's dimension.
      *
@@ -0,0 +1,99 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes images in the formats {@link com.day.image.Layer} cannot write (e.g. WebP or AVIF), through the ImageIO writer plugins
+ * installed in the instance.
+ */
+public final class ImageIOEncoder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageIOEncoder.class);
+
+    /**
+     * The mime types reported as missing a writer, so that each one is only logged once.
+     */
+    private static final Set<String> MISSING_WRITERS = ConcurrentHashMap.newKeySet();
+
+    private ImageIOEncoder() {
+    }
+
+    /**
+     * Checks if an ImageIO writer is available for the given mime type. A missing writer is logged the first time it is detected.
+     *
+     * @param mimeType the mime type
+     * @return {@code true} if images can be encoded to {@code mimeType}, {@code false} otherwise
+     */
+    public static boolean canWrite(@NotNull String mimeType) {
+        if (ImageIO.getImageWritersByMIMEType(mimeType).hasNext()) {
+            return true;
+        }
+        if (MISSING_WRITERS.add(mimeType)) {
+            LOGGER.warn("No image writer is installed for {}; images will not be rendered in this format.", mimeType);
+        }
+        return false;
+    }
+
+    /**
+     * Encodes an image.
+     *
+     * @param image    the image
+     * @param mimeType the mime type of the encoded image
+     * @param quality  the quality, between 0 and 1, used by lossy encoders
+     * @param out      the stream to write the encoded image to
+     * @throws IOException if no writer is available for {@code mimeType} or the image cannot be encoded
+     */
+    static void write(@NotNull BufferedImage image, @NotNull String mimeType, double quality, @NotNull OutputStream out) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(mimeType);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer available for " + mimeType);
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(imageOutputStream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                String[] compressionTypes = param.getCompressionTypes();
+                if (param.getCompressionType() == null && compressionTypes != null && compressionTypes.length > 0) {
+                    // writers list their lossy compression first (e.g. "Lossy", "Lossless" for WebP)
+                    param.setCompressionType(compressionTypes[0]);
+                }
+                param.setCompressionQuality((float) quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.dam.api.Asset;
+import com.day.image.Layer;
+
+/**
+ * Generates the low quality image placeholders (LQIP) rendered by lazy images while they load: a tiny, inlined version of the image,
+ * rendered from the asset's smallest sufficient rendition. The placeholders are cached by asset, until the asset is modified.
+ * <p>
+ * Placeholders are never generated while a page is rendered: a missing placeholder is queued and generated in the background, one at
+ * a time, and the image is rendered without placeholder until it is ready. The renditions are selected through the
+ * {@link RenditionDimensionIndex} and decoded subsampled, so that generating a placeholder never decodes a large image at full
+ * resolution.
+ */
+@Designate(ocd = ImagePlaceholderGenerator.Config.class)
+@Component(service = ImagePlaceholderGenerator.class)
+public class ImagePlaceholderGenerator {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Image Placeholder Generator",
+            description = "Generates the low quality placeholders of lazy images."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Size",
+                description = "The width, in pixels, of the placeholders."
+        )
+        int size() default DEFAULT_SIZE;
+
+        @AttributeDefinition(
+                name = "Quality",
+                description = "The quality of the JPEG placeholders, between 0 and 1."
+        )
+        double quality() default 0.5;
+
+        @AttributeDefinition(
+                name = "Cache size",
+                description = "The maximum number of assets whose placeholder is cached."
+        )
+        int cacheSize() default 5000;
+
+        @AttributeDefinition(
+                name = "Maximum pending placeholders",
+                description = "The maximum number of placeholders waiting to be generated. Further requests are ignored until the " +
+                        "queue drains."
+        )
+        int maxPending() default 1000;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImagePlaceholderGenerator.class);
+
+    /**
+     * The largest placeholder size; placeholders are inlined in the page, so they have to stay tiny.
+     */
+    static final int DEFAULT_SIZE = 32;
+
+    private static final String SERVICE_NAME = "image-placeholder";
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+    private static final String MIME_TYPE_PNG = "image/png";
+    private static final String MIME_TYPE_GIF = "image/gif";
+    private static final String MIME_TYPE_SVG = "image/svg+xml";
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private RenditionDimensionIndex renditionDimensionIndex;
+
+    private int size = DEFAULT_SIZE;
+    private double quality = 0.5;
+    private int cacheSize = 5000;
+    private int maxPending = 1000;
+
+    // asset path -> placeholder
+    private final LinkedHashMap<String, Placeholder> cache = new LinkedHashMap<String, Placeholder>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Placeholder> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    private final Set<String> pendingPaths = ConcurrentHashMap.newKeySet();
+    private volatile ExecutorService executor;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        size = Math.min(Math.max(config.size(), 1), DEFAULT_SIZE);
+        quality = Math.min(Math.max(config.quality(), 0), 1);
+        maxPending = Math.max(config.maxPending(), 0);
+        synchronized (cache) {
+            cacheSize = Math.max(config.cacheSize(), 0);
+            cache.clear();
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "image-placeholder-generator");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ExecutorService generator = executor;
+        executor = null;
+        if (generator != null) {
+            generator.shutdownNow();
+        }
+        pendingPaths.clear();
+    }
+
+    /**
+     * Returns the placeholder of an asset. If the placeholder was not generated yet, its generation is queued and {@code null} is
+     * returned.
+     *
+     * @param asset the asset
+     * @return the placeholder, as a {@code data:} URI, or {@code null} if the asset has no placeholder (e.g. SVG images) or the
+     * placeholder is not generated yet
+     */
+    @Nullable
+    public String getPlaceholder(@NotNull Asset asset) {
+        String mimeType = asset.getMimeType();
+        if (!StringUtils.startsWith(mimeType, "image/") || MIME_TYPE_SVG.equals(mimeType)) {
+            return null;
+        }
+        String path = asset.getPath();
+        synchronized (cache) {
+            Placeholder placeholder = cache.get(path);
+            if (placeholder != null && placeholder.lastModified == asset.getLastModified()) {
+                return placeholder.uri;
+            }
+        }
+        queue(path);
+        return null;
+    }
+
+    private void queue(@NotNull String path) {
+        ExecutorService generator = executor;
+        if (generator == null || pendingPaths.size() >= maxPending || !pendingPaths.add(path)) {
+            return;
+        }
+        try {
+            generator.execute(() -> {
+                try {
+                    generate(path);
+                } finally {
+                    pendingPaths.remove(path);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingPaths.remove(path);
+        }
+    }
+
+    private void generate(@NotNull String path) {
+        Map<String, Object> authenticationInfo = Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SERVICE_NAME);
+        try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(authenticationInfo)) {
+            Resource resource = resourceResolver.getResource(path);
+            Asset asset = resource != null ? resource.adaptTo(Asset.class) : null;
+            if (asset == null) {
+                return;
+            }
+            String uri = render(asset, asset.getMimeType());
+            synchronized (cache) {
+                cache.put(path, new Placeholder(asset.getLastModified(), uri));
+            }
+        } catch (LoginException e) {
+            LOG.error("Unable to log in with the {} service user; image placeholders cannot be generated.", SERVICE_NAME, e);
+        }
+    }
+
+    @Nullable
+    private String render(@NotNull Asset asset, @NotNull String mimeType) {
+        EnhancedRendition rendition = getSmallestRendition(asset, mimeType);
+        if (rendition == null) {
+            return null;
+        }
+        try (InputStream stream = rendition.getStream()) {
+            if (stream == null) {
+                return null;
+            }
+            BufferedImage image = SubsampledImageReader.read(stream, null, size, 0, AdaptiveImageServlet.DEFAULT_MAX_SIZE);
+            if (image == null) {
+                return null;
+            }
+            Layer layer = new Layer(image);
+            if (layer.getWidth() > size) {
+                layer.resize(size, Math.max(1, Math.round((float) layer.getHeight() * size / layer.getWidth())));
+            }
+            String placeholderType = MIME_TYPE_PNG.equals(mimeType) || MIME_TYPE_GIF.equals(mimeType) ? MIME_TYPE_PNG : MIME_TYPE_JPEG;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            layer.write(placeholderType, quality, out);
+            return "data:" + placeholderType + ";base64," + Base64.getEncoder().encodeToString(out.toByteArray());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot generate the placeholder of asset {}", asset.getPath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the smallest rendition that is at least as wide as the placeholder, preferring the asset's own mime type and then the web
+     * formats, or the widest rendition of the asset's mime type if none is.
+     */
+    @Nullable
+    private EnhancedRendition getSmallestRendition(@NotNull Asset asset, @NotNull String mimeType) {
+        RenditionDimensionIndex.Renditions renditions = renditionDimensionIndex.get(asset);
+        for (String candidateType : new String[] {mimeType, MIME_TYPE_JPEG, MIME_TYPE_PNG}) {
+            int i = renditions.find(size, candidateType, true);
+            if (i >= 0) {
+                return renditions.getRendition(asset, i);
+            }
+        }
+        int widest = renditions.findWidest(mimeType);
+        return widest >= 0 ? renditions.getRendition(asset, widest) : null;
+    }
+
+    private static final class Placeholder {
+
+        private final long lastModified;
+        private final String uri;
+
+        private Placeholder(long lastModified, @Nullable String uri) {
+            this.lastModified = lastModified;
+            this.uri = uri;
+        }
+    }
+}
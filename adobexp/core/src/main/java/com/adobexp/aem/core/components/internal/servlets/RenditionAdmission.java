@@ -0,0 +1,138 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Admission control for the image transformations of an {@link AdaptiveImageServlet} registration. Limits the number of concurrent
+ * renders and the number of decoded pixels in flight; requests exceeding the limits are queued, up to a maximum queue length and
+ * waiting time, after which they are rejected.
+ */
+class RenditionAdmission {
+
+    private final int maxConcurrentRenders;
+    private final int maxQueuedRenders;
+    private final long maxPixels;
+    private final long queueTimeout;
+    private final AdaptiveImageServletMetrics metrics;
+
+    private int running;
+    private int queued;
+    private long pixelsInFlight;
+
+    /**
+     * @param maxConcurrentRenders the maximum number of concurrent renders; if not positive, the number of available processors is used
+     * @param maxQueuedRenders     the maximum number of renders waiting for admission
+     * @param maxPixels            the maximum number of decoded pixels in flight; if not positive, the pixels are not limited
+     * @param queueTimeout         the maximum time a render waits for admission, in milliseconds
+     * @param metrics              the metrics to report the queue depth and rejections to
+     */
+    RenditionAdmission(int maxConcurrentRenders, int maxQueuedRenders, long maxPixels, long queueTimeout,
+                       AdaptiveImageServletMetrics metrics) {
+        this.maxConcurrentRenders = maxConcurrentRenders > 0 ? maxConcurrentRenders : Runtime.getRuntime().availableProcessors();
+        this.maxQueuedRenders = Math.max(maxQueuedRenders, 0);
+        this.maxPixels = maxPixels > 0 ? maxPixels : Long.MAX_VALUE;
+        this.queueTimeout = Math.max(queueTimeout, 0);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Acquires a permit to render an image, waiting for the running renders to complete if necessary. An image larger than the pixel
+     * budget is accounted as the whole budget, so that it can still be rendered on its own.
+     *
+     * @param pixels the estimated number of pixels to decode
+     * @return the permit, which must be {@link Permit#close() closed} when the render completes, or {@code null} if the render was
+     * rejected
+     */
+    @Nullable
+    synchronized Permit acquire(long pixels) {
+        long weight = Math.min(Math.max(pixels, 0), maxPixels);
+        if (queued == 0 && canRun(weight)) {
+            return admit(weight);
+        }
+        if (queued >= maxQueuedRenders) {
+            metrics.markRenditionRejected();
+            return null;
+        }
+        queued++;
+        metrics.incrementRenditionQueueDepth();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+            while (!canRun(weight)) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    metrics.markRenditionRejected();
+                    return null;
+                }
+                wait(remaining);
+            }
+            return admit(weight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.markRenditionRejected();
+            return null;
+        } finally {
+            queued--;
+            metrics.decrementRenditionQueueDepth();
+        }
+    }
+
+    /**
+     * Returns the number of seconds a rejected client should wait before retrying.
+     *
+     * @return the retry delay, in seconds
+     */
+    long getRetryAfterSeconds() {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(queueTimeout));
+    }
+
+    private boolean canRun(long weight) {
+        return running < maxConcurrentRenders && (running == 0 || pixelsInFlight + weight <= maxPixels);
+    }
+
+    private Permit admit(long weight) {
+        running++;
+        pixelsInFlight += weight;
+        return new Permit(weight);
+    }
+
+    private synchronized void release(long weight) {
+        running--;
+        pixelsInFlight -= weight;
+        notifyAll();
+    }
+
+    final class Permit implements AutoCloseable {
+
+        private final long weight;
+        private boolean released;
+
+        private Permit(long weight) {
+            this.weight = weight;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(weight);
+            }
+        }
+    }
+}
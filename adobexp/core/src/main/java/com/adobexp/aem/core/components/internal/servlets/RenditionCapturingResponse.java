@@ -0,0 +1,221 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+/**
+ * Response wrapper that passes the rendition through to the client while keeping a copy of it, so that it can be stored in the
+ * {@link AdaptiveImageRenditionCache}. Renditions larger than the configured limit are passed through without being copied, as are
+ * partial ({@code 206}) responses.
+ * <p>
+ * The caching headers are only set once the rendition starts being written with a successful status code, so that error responses
+ * are never sent with them.
+ */
+class RenditionCapturingResponse extends SlingHttpServletResponseWrapper {
+
+    private static final String CONTENT_DISPOSITION = "Content-Disposition";
+
+    private final int limit;
+    private final String rangeHeader;
+    private final Runnable cachingHeaders;
+    private final CapturingBuffer buffer = new CapturingBuffer();
+    private String contentType;
+    private String dispositionType;
+    private boolean overflow;
+    private int status = HttpServletResponse.SC_OK;
+    private ServletOutputStream outputStream;
+
+    /**
+     * @param wrappedResponse the response
+     * @param limit           the size of the largest rendition that is copied, in bytes
+     * @param rangeHeader     the {@code Range} header of the request, or {@code null} to stream the whole rendition
+     * @param cachingHeaders  sets the caching headers of the response
+     */
+    RenditionCapturingResponse(SlingHttpServletResponse wrappedResponse, int limit, String rangeHeader, Runnable cachingHeaders) {
+        super(wrappedResponse);
+        this.limit = limit;
+        this.rangeHeader = rangeHeader;
+        this.cachingHeaders = cachingHeaders;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        if (sc != HttpServletResponse.SC_OK) {
+            discard();
+        }
+        status = sc;
+        super.setStatus(sc);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        discard();
+        status = sc;
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        discard();
+        status = sc;
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void setContentType(String type) {
+        contentType = type;
+        super.setContentType(type);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        captureDisposition(name, value);
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        captureDisposition(name, value);
+        super.addHeader(name, value);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            if (status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_PARTIAL_CONTENT) {
+                cachingHeaders.run();
+            }
+            outputStream = new TeeOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    /**
+     * Returns {@code true} if a complete rendition was captured.
+     *
+     * @return {@code true} if the rendition can be cached, {@code false} otherwise
+     */
+    boolean isCaptured() {
+        return !overflow && buffer.size() > 0 && StringUtils.isNotEmpty(contentType);
+    }
+
+    byte[] getBuffer() {
+        return buffer.getBuffer();
+    }
+
+    int getLength() {
+        return buffer.size();
+    }
+
+    /**
+     * Returns the {@code Range} header of the request, so that renditions streamed without being transformed can be served partially.
+     *
+     * @return the {@code Range} header, or {@code null} if the whole rendition has to be streamed
+     */
+    String getRangeHeader() {
+        return rangeHeader;
+    }
+
+    String getCapturedContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the disposition type ({@code inline} or {@code attachment}) of the rendition, without the file name, since the file
+     * name depends on the request's suffix and is not part of the cached rendition.
+     *
+     * @return the disposition type, or {@code null} if no disposition was set
+     */
+    String getDispositionType() {
+        return dispositionType;
+    }
+
+    private void captureDisposition(String name, String value) {
+        if (CONTENT_DISPOSITION.equalsIgnoreCase(name) && value != null) {
+            dispositionType = StringUtils.substringBefore(value, ";").trim();
+        }
+    }
+
+    private void capture(byte[] b, int off, int len) {
+        if (overflow) {
+            return;
+        }
+        if (buffer.size() + len > limit) {
+            discard();
+            return;
+        }
+        buffer.write(b, off, len);
+    }
+
+    private void discard() {
+        overflow = true;
+        buffer.reset();
+    }
+
+    private static final class CapturingBuffer extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private final class TeeOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+        private final byte[] single = new byte[1];
+
+        TeeOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            single[0] = (byte) b;
+            capture(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.Rendition;
+
+/**
+ * In-memory index of the rendition dimensions of the assets rendered by the {@link AdaptiveImageServlet}, so that the best rendition
+ * for a request can be selected without reading the renditions' metadata or streams. The index of an asset is built the first time
+ * the asset is rendered and dropped when a change is observed on the asset or on one of its renditions.
+ */
+@Designate(ocd = RenditionDimensionIndex.Config.class)
+@Component(
+        service = {RenditionDimensionIndex.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/content/dam",
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+public class RenditionDimensionIndex implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Adaptive Image Rendition Dimension Index",
+            description = "In-memory index of the asset rendition dimensions used by the adaptive image servlet."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Maximum indexed assets",
+                description = "The maximum number of assets kept in the index. The least recently used assets are dropped when the " +
+                        "number is exceeded."
+        )
+        int maxAssets() default DEFAULT_MAX_ASSETS;
+    }
+
+    static final int DEFAULT_MAX_ASSETS = 10000;
+
+    // mime type -> id; ids are never reused, so the arrays of the indexed assets stay valid
+    private static final Map<String, Integer> MIME_TYPE_IDS = new ConcurrentHashMap<>();
+    private static final List<String> MIME_TYPES = new CopyOnWriteArrayList<>();
+    private static final int NO_MIME_TYPE = -1;
+
+    private int maxAssets = DEFAULT_MAX_ASSETS;
+
+    private final LinkedHashMap<String, Renditions> index = new LinkedHashMap<String, Renditions>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Renditions> eldest) {
+            return size() > maxAssets;
+        }
+    };
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        synchronized (index) {
+            maxAssets = Math.max(config.maxAssets(), 1);
+            index.clear();
+        }
+    }
+
+    /**
+     * Returns the indexed renditions of an asset, indexing them if needed.
+     *
+     * @param asset the asset
+     * @return the indexed renditions
+     */
+    @NotNull
+    public Renditions get(@NotNull Asset asset) {
+        String path = asset.getPath();
+        long lastModified = asset.getLastModified();
+        Renditions renditions;
+        synchronized (index) {
+            renditions = index.get(path);
+        }
+        if (renditions == null || renditions.lastModified != lastModified) {
+            renditions = build(asset);
+            synchronized (index) {
+                index.put(path, renditions);
+            }
+        }
+        return renditions;
+    }
+
+    /**
+     * Drops the index of the asset at the given path, or of the asset containing the resource at the given path.
+     *
+     * @param path the path of a modified resource
+     */
+    public void invalidate(@NotNull String path) {
+        synchronized (index) {
+            String candidate = path;
+            while (StringUtils.isNotEmpty(candidate)) {
+                index.remove(candidate);
+                int lastSlash = candidate.lastIndexOf('/');
+                candidate = lastSlash > 0 ? candidate.substring(0, lastSlash) : null;
+            }
+        }
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        for (ResourceChange change : changes) {
+            invalidate(change.getPath());
+        }
+    }
+
+    /**
+     * Indexes the renditions of an asset, without caching the result.
+     *
+     * @param asset the asset
+     * @return the indexed renditions
+     */
+    @NotNull
+    static Renditions build(@NotNull Asset asset) {
+        List<EnhancedRendition> renditions = new ArrayList<>();
+        for (Rendition rendition : asset.getRenditions()) {
+            renditions.add(new EnhancedRendition(rendition));
+        }
+        // stable sort: among renditions of the same width, the first one returned by the asset is preferred
+        Collections.sort(renditions, Comparator.comparingInt(RenditionDimensionIndex::getWidth));
+        int size = renditions.size();
+        String[] names = new String[size];
+        int[] widths = new int[size];
+        int[] heights = new int[size];
+        int[] mimeTypes = new int[size];
+        for (int i = 0; i < size; i++) {
+            EnhancedRendition rendition = renditions.get(i);
+            Dimension dimension = rendition.getDimension();
+            names[i] = rendition.getName();
+            widths[i] = dimension != null ? dimension.width : 0;
+            heights[i] = dimension != null ? dimension.height : 0;
+            mimeTypes[i] = getMimeTypeId(rendition.getMimeType());
+        }
+        return new Renditions(asset.getLastModified(), names, widths, heights, mimeTypes);
+    }
+
+    private static int getWidth(EnhancedRendition rendition) {
+        Dimension dimension = rendition.getDimension();
+        return dimension != null ? dimension.width : 0;
+    }
+
+    private static int getMimeTypeId(@Nullable String mimeType) {
+        if (mimeType == null) {
+            return NO_MIME_TYPE;
+        }
+        Integer id = MIME_TYPE_IDS.get(mimeType);
+        if (id == null) {
+            synchronized (MIME_TYPE_IDS) {
+                id = MIME_TYPE_IDS.get(mimeType);
+                if (id == null) {
+                    MIME_TYPES.add(mimeType);
+                    id = MIME_TYPES.size() - 1;
+                    MIME_TYPE_IDS.put(mimeType, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * The renditions of an asset, sorted by width. Renditions whose dimension is unknown have a width and height of 0.
+     */
+    public static final class Renditions {
+
+        private final long lastModified;
+        private final String[] names;
+        private final int[] widths;
+        private final int[] heights;
+        private final int[] mimeTypes;
+
+        Renditions(long lastModified, String[] names, int[] widths, int[] heights, int[] mimeTypes) {
+            this.lastModified = lastModified;
+            this.names = names;
+            this.widths = widths;
+            this.heights = heights;
+            this.mimeTypes = mimeTypes;
+        }
+
+        /**
+         * Checks if at least one rendition has the given mime type.
+         *
+         * @param mimeType the mime type
+         * @return {@code true} if a rendition has the mime type
+         */
+        boolean hasMimeType(@NotNull String mimeType) {
+            Integer id = MIME_TYPE_IDS.get(mimeType);
+            if (id != null) {
+                for (int mimeTypeId : mimeTypes) {
+                    if (mimeTypeId == id) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Finds the smallest rendition at least as wide as the given width.
+         *
+         * @param width    the minimum width
+         * @param mimeType the mime type
+         * @param matching {@code true} to search the renditions of the given mime type, {@code false} to search the other renditions
+         * @return the index of the rendition, or {@code -1} if none is found
+         */
+        int find(int width, @NotNull String mimeType, boolean matching) {
+            int id = MIME_TYPE_IDS.getOrDefault(mimeType, NO_MIME_TYPE - 1);
+            for (int i = lowerBound(Math.max(width, 1)); i < widths.length; i++) {
+                if ((mimeTypes[i] == id) == matching) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Finds the widest rendition of the given mime type.
+         *
+         * @param mimeType the mime type
+         * @return the index of the rendition, or {@code -1} if no rendition has the mime type
+         */
+        int findWidest(@NotNull String mimeType) {
+            int id = MIME_TYPE_IDS.getOrDefault(mimeType, NO_MIME_TYPE - 1);
+            int widest = -1;
+            for (int i = widths.length - 1; i >= 0; i--) {
+                if (mimeTypes[i] == id) {
+                    if (widest >= 0 && widths[i] != widths[widest]) {
+                        break;
+                    }
+                    widest = i;
+                }
+            }
+            return widest;
+        }
+
+        /**
+         * Resolves an indexed rendition.
+         *
+         * @param asset the asset
+         * @param i     the index of the rendition
+         * @return the rendition, or {@code null} if the rendition doesn't exist anymore
+         */
+        @Nullable
+        EnhancedRendition getRendition(@NotNull Asset asset, int i) {
+            Rendition rendition = asset.getRendition(names[i]);
+            if (rendition == null) {
+                return null;
+            }
+            return new EnhancedRendition(rendition, widths[i] > 0 ? new Dimension(widths[i], heights[i]) : null);
+        }
+
+        private int lowerBound(int width) {
+            int low = 0;
+            int high = widths.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (widths[middle] < width) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
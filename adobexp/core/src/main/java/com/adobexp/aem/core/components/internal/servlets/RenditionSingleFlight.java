@@ -0,0 +1,133 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Coalesces concurrent requests for the same rendition: the first request for a {@link AdaptiveImageRenditionKey} renders it, while
+ * the requests arriving during the rendering wait for that result and stream the shared bytes instead of rendering it again.
+ */
+class RenditionSingleFlight {
+
+    private final ConcurrentMap<AdaptiveImageRenditionKey, CompletableFuture<Rendition>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Joins the flight rendering the rendition identified by {@code key}, starting a new one if none is in progress.
+     *
+     * @param key the rendition key
+     * @return the flight; {@link Flight#isLeader()} tells whether the caller has to render the rendition
+     */
+    @NotNull
+    Flight join(@NotNull AdaptiveImageRenditionKey key) {
+        CompletableFuture<Rendition> future = new CompletableFuture<>();
+        CompletableFuture<Rendition> inProgress = flights.putIfAbsent(key, future);
+        if (inProgress == null) {
+            return new Flight(key, future, true);
+        }
+        return new Flight(key, inProgress, false);
+    }
+
+    final class Flight {
+
+        private final AdaptiveImageRenditionKey key;
+        private final CompletableFuture<Rendition> future;
+        private final boolean leader;
+
+        private Flight(AdaptiveImageRenditionKey key, CompletableFuture<Rendition> future, boolean leader) {
+            this.key = key;
+            this.future = future;
+            this.leader = leader;
+        }
+
+        boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Waits for the leader of this flight to render the rendition.
+         *
+         * @param timeout the maximum time to wait, in milliseconds
+         * @return the shared rendition, or {@code null} if the leader failed, timed out or produced a rendition that could not be shared
+         */
+        @Nullable
+        Rendition await(long timeout) {
+            try {
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException | TimeoutException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Hands the rendition over to the waiting requests and ends this flight. Must be called by the leader, also when rendering
+         * failed.
+         *
+         * @param rendition the rendition, or {@code null} if none can be shared
+         */
+        void complete(@Nullable Rendition rendition) {
+            flights.remove(key, future);
+            future.complete(rendition);
+        }
+    }
+
+    /**
+     * A rendered image, shared between the coalesced requests.
+     */
+    static final class Rendition {
+
+        private final byte[] data;
+        private final int length;
+        private final String contentType;
+        private final String dispositionType;
+
+        Rendition(byte @NotNull [] data, int length, @NotNull String contentType, @Nullable String dispositionType) {
+            this.data = data;
+            this.length = length;
+            this.contentType = contentType;
+            this.dispositionType = dispositionType;
+        }
+
+        byte @NotNull [] getData() {
+            return data;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        @NotNull
+        String getContentType() {
+            return contentType;
+        }
+
+        @Nullable
+        String getDispositionType() {
+            return dispositionType;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2017 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decodes images with ImageIO, reading only the region of interest and skipping source pixels (subsampling) when the image is much
+ * larger than the requested width, so that large originals can be transformed without decoding them at full resolution.
+ */
+final class SubsampledImageReader {
+
+    /**
+     * The image is decoded at least this many times larger than the requested width, so that the final resize still filters the
+     * image instead of relying on the (nearest neighbour) subsampling alone.
+     */
+    private static final int OVERSAMPLING = 2;
+
+    private SubsampledImageReader() {
+    }
+
+    /**
+     * Checks if ImageIO is able to decode images of the given mime type.
+     *
+     * @param mimeType the mime type
+     * @return {@code true} if an ImageIO reader is available, {@code false} otherwise
+     */
+    static boolean canRead(@Nullable String mimeType) {
+        return mimeType != null && ImageIO.getImageReadersByMIMEType(mimeType).hasNext();
+    }
+
+    /**
+     * Computes the subsampling factor used to decode an image.
+     *
+     * @param decodedWidth the width of the decoded region, in pixels
+     * @param outputWidth  the width of the decoded region once rotated, in pixels
+     * @param resizeWidth  the requested width, in pixels; if not positive, the image is only subsampled to fit in {@code maxWidth}
+     * @param maxWidth     the maximum width of the decoded image, in pixels
+     * @return the subsampling factor, {@code 1} if all pixels have to be decoded
+     */
+    static int getSubsampling(int decodedWidth, int outputWidth, int resizeWidth, int maxWidth) {
+        int subsampling = 1;
+        if (resizeWidth > 0) {
+            subsampling = Math.max(1, outputWidth / (resizeWidth * OVERSAMPLING));
+        }
+        if (maxWidth > 0 && decodedWidth > maxWidth) {
+            subsampling = Math.max(subsampling, (decodedWidth + maxWidth - 1) / maxWidth);
+        }
+        return subsampling;
+    }
+
+    /**
+     * Decodes the given region of an image, subsampled for the requested width.
+     *
+     * @param stream        the encoded image
+     * @param region        the region to decode, in source pixels, or {@code null} to decode the whole image
+     * @param resizeWidth   the width the image will be resized to, in pixels
+     * @param rotationAngle the rotation that will be applied to the image, in degrees
+     * @param maxWidth      the maximum width of the decoded image, in pixels
+     * @return the decoded image, or {@code null} if no ImageIO reader is able to decode the image or the region is outside of the image
+     * @throws IOException if the image cannot be decoded
+     */
+    @Nullable
+    static BufferedImage read(@NotNull InputStream stream, @Nullable Rectangle region, int resizeWidth, int rotationAngle, int maxWidth)
+            throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(stream)) {
+            if (imageInputStream == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                Rectangle sourceRegion = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+                if (region != null) {
+                    sourceRegion = sourceRegion.intersection(region);
+                    if (sourceRegion.isEmpty()) {
+                        return null;
+                    }
+                }
+                int outputWidth = Math.abs(rotationAngle) % 180 == 90 ? sourceRegion.height : sourceRegion.width;
+                int subsampling = getSubsampling(sourceRegion.width, outputWidth, resizeWidth, maxWidth);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(sourceRegion);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
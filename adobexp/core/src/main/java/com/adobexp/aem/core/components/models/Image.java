@@ -211,6 +211,21 @@ public interface Image {
      */
     String PN_DESIGN_RESIZE_WIDTH = "resizeWidth";
 
+    /**
+     * Name of the configuration policy property that controls whether JPEG and PNG images are rendered in the WebP format by the
+     * adaptive image servlet.
+     *
+     * @since com.adobexp.aem.core.components.models 12.29.0
+     */
+    String PN_DESIGN_WEBP_ENABLED = "enableWebp";
+
+    /**
+     * Name of the configuration policy property that controls whether lazy images render a low quality placeholder while they load.
+     *
+     * @since com.adobexp.aem.core.components.models 12.30.0
+     */
+    String PN_DESIGN_PLACEHOLDER_ENABLED = "enablePlaceholder";
+
     /**
      * Returns the value for the {@code src} attribute of the image.
      *
@@ -422,6 +437,16 @@ public interface Image {
         return false;
     }
 
+    /**
+     * Returns the low quality placeholder rendered while the image loads lazily.
+     *
+     * @return the placeholder, as a {@code data:} URI, or {@code null} if the image has no placeholder
+     * @since com.adobexp.aem.core.components.models 12.30.0
+     */
+    default String getPlaceholder() {
+        return null;
+    }
+
     default String getSmartCropRendition() {
         return null;
     }
@@ -15,6 +15,9 @@
  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
 package com.adobexp.aem.core.sightly;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.script.Bindings;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletRequestWrapper;
@@ -28,9 +31,16 @@ import org.apache.sling.scripting.sightly.use.ProviderOutcome;
 import org.apache.sling.scripting.sightly.use.UseProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 
+import com.adobexp.aem.core.components.internal.models.RequestModelCache;
+
 /**
  * Custom HTL UseProvider that forces Sling Models adaptation for {@code com.adobexp.*} identifiers.
  *
@@ -39,6 +49,10 @@ import org.osgi.service.component.annotations.Reference;
  * {@code com.adobexp.aem.core.components.models.Page}, which fails.
  *
  * This provider runs before JavaUseProvider and creates Sling Models via {@link ModelFactory#createModel(Object, Class)}.
+ *
+ * The class of each identifier is cached, so that rendering a use statement doesn't load classes. The cache is cleared
+ * whenever a bundle is resolved, unresolved or updated, since the classes it holds may come from that bundle. The models
+ * themselves are memoized for the duration of the request by the {@link RequestModelCache}.
  */
 @Component(
         service = UseProvider.class,
@@ -47,7 +61,7 @@ import org.osgi.service.component.annotations.Reference;
                 "service.ranking:Integer=200"
         }
 )
-public class SlingModelsUseProvider implements UseProvider {
+public class SlingModelsUseProvider implements UseProvider, BundleListener {
 
     private static final String SUPPORTED_PREFIX = "com.adobexp.";
     private static final String PAGE_MODEL_FQCN = "com.adobexp.aem.core.components.models.Page";
@@ -58,6 +72,38 @@ public class SlingModelsUseProvider implements UseProvider {
     @Reference
     private ModelFactory modelFactory;
 
+    private final ConcurrentMap<String, Resolution> resolutions = new ConcurrentHashMap<>();
+
+    private BundleContext bundleContext;
+
+    @Activate
+    protected void activate(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        bundleContext.addBundleListener(this);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (bundleContext != null) {
+            bundleContext.removeBundleListener(this);
+            bundleContext = null;
+        }
+        resolutions.clear();
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.RESOLVED:
+            case BundleEvent.UNRESOLVED:
+            case BundleEvent.UPDATED:
+                resolutions.clear();
+                break;
+            default:
+                break;
+        }
+    }
+
     @Override
     public ProviderOutcome provide(String identifier, RenderContext renderContext, Bindings arguments) {
         if (identifier == null || !identifier.startsWith(SUPPORTED_PREFIX)) {
@@ -101,52 +147,19 @@ public class SlingModelsUseProvider implements UseProvider {
         }
         final Resource reqResource = request.getResource();
 
-        final Class<?> targetClass;
-        try {
-            targetClass = this.getClass().getClassLoader().loadClass(identifier);
-        } catch (ClassNotFoundException e) {
-            if (PAGE_MODEL_FQCN.equals(identifier)) {
-                LOG.warn("HTL UseProvider could not load class {}", identifier, e);
-            }
-            return ProviderOutcome.failure(e);
+        final Resolution resolution = resolve(identifier);
+        if (resolution.failure != null) {
+            return ProviderOutcome.failure(resolution.failure);
         }
 
         try {
-            // Special-case Page interface: in some rendering contexts Sling Models cannot resolve
-            // "interface -> implementation" mapping for request wrappers (e.g. OnDemandReaderRequest).
-            // We can still return the correct model instance by creating the concrete implementation.
-            if (PAGE_MODEL_FQCN.equals(identifier)) {
-                try {
-                    Class<?> pageImplClass = this.getClass().getClassLoader().loadClass(PAGE_IMPL_FQCN);
-                    Object pageModel = request.adaptTo(pageImplClass);
-                    if (pageModel == null && modelFactory != null) {
-                        @SuppressWarnings({ "rawtypes", "unchecked" })
-                        Object created = modelFactory.createModel(request, (Class) pageImplClass);
-                        pageModel = created;
-                    }
-                    if (pageModel != null) {
-                        return ProviderOutcome.success(pageModel);
-                    }
-                } catch (Throwable e) {
-                    // fall through to the generic path below (will log with context)
-                    LOG.warn("Page impl fallback failed for {} (resource={}, resourceType={})",
-                            identifier,
-                            reqResource != null ? reqResource.getPath() : null,
-                            reqResource != null ? reqResource.getResourceType() : null,
-                            e);
-                }
-            }
-
-            // Important: ModelFactory.canCreateFromAdaptable(...) may return false for adapter interfaces
-            // (e.g. com.adobexp...models.Page). Using adaptTo(...) triggers Sling Models adapter resolution.
-            @SuppressWarnings({ "rawtypes", "unchecked" })
-            Object model = request.adaptTo((Class) targetClass);
-            if (model == null && modelFactory != null) {
-                // Try explicit Sling Models creation as a fallback (more deterministic in some contexts).
-                @SuppressWarnings({ "rawtypes", "unchecked" })
-                Object created = modelFactory.createModel(request, (Class) targetClass);
-                model = created;
-            }
+            // A page render often asks for the same model several times (e.g. the page model from several
+            // templates): models are created once per request and resource.
+            final SlingHttpServletRequest modelRequest = request;
+            Object model = reqResource != null
+                    ? RequestModelCache.get(modelRequest).getModel(modelRequest, reqResource, resolution.targetClass,
+                            () -> createModel(identifier, modelRequest, reqResource, resolution))
+                    : createModel(identifier, modelRequest, null, resolution);
 
             if (PAGE_MODEL_FQCN.equals(identifier) && model == null) {
                 LOG.warn("HTL UseProvider could not adapt request to {} (resource={}, resourceType={})",
@@ -166,6 +179,90 @@ public class SlingModelsUseProvider implements UseProvider {
             return ProviderOutcome.failure(e);
         }
     }
-}
 
+    /**
+     * Creates the model of an identifier from the request.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private Object createModel(String identifier, SlingHttpServletRequest request, Resource reqResource, Resolution resolution) {
+        // Special-case Page interface: in some rendering contexts Sling Models cannot resolve
+        // "interface -> implementation" mapping for request wrappers (e.g. OnDemandReaderRequest).
+        // We can still return the correct model instance by creating the concrete implementation.
+        if (resolution.pageImplClass != null) {
+            try {
+                Object pageModel = request.adaptTo(resolution.pageImplClass);
+                if (pageModel == null && modelFactory != null) {
+                    pageModel = modelFactory.createModel(request, (Class) resolution.pageImplClass);
+                }
+                if (pageModel != null) {
+                    return pageModel;
+                }
+            } catch (Throwable e) {
+                // fall through to the generic path below (will log with context)
+                LOG.warn("Page impl fallback failed for {} (resource={}, resourceType={})",
+                        identifier,
+                        reqResource != null ? reqResource.getPath() : null,
+                        reqResource != null ? reqResource.getResourceType() : null,
+                        e);
+            }
+        }
 
+        // Important: ModelFactory.canCreateFromAdaptable(...) may return false for adapter interfaces
+        // (e.g. com.adobexp...models.Page). Using adaptTo(...) triggers Sling Models adapter resolution.
+        Object model = request.adaptTo((Class) resolution.targetClass);
+        if (model == null && modelFactory != null) {
+            // Try explicit Sling Models creation as a fallback (more deterministic in some contexts).
+            model = modelFactory.createModel(request, (Class) resolution.targetClass);
+        }
+        return model;
+    }
+
+    /**
+     * Returns the resolution of an identifier, loading its class the first time the identifier is used.
+     */
+    private Resolution resolve(String identifier) {
+        Resolution resolution = resolutions.get(identifier);
+        if (resolution == null) {
+            resolution = resolutions.computeIfAbsent(identifier, this::load);
+        }
+        return resolution;
+    }
+
+    private Resolution load(String identifier) {
+        final ClassLoader classLoader = this.getClass().getClassLoader();
+        final Class<?> targetClass;
+        try {
+            targetClass = classLoader.loadClass(identifier);
+        } catch (ClassNotFoundException e) {
+            if (PAGE_MODEL_FQCN.equals(identifier)) {
+                LOG.warn("HTL UseProvider could not load class {}", identifier, e);
+            }
+            return new Resolution(null, null, e);
+        }
+        Class<?> pageImplClass = null;
+        if (PAGE_MODEL_FQCN.equals(identifier)) {
+            try {
+                pageImplClass = classLoader.loadClass(PAGE_IMPL_FQCN);
+            } catch (ClassNotFoundException e) {
+                LOG.warn("HTL UseProvider could not load class {}", PAGE_IMPL_FQCN, e);
+            }
+        }
+        return new Resolution(targetClass, pageImplClass, null);
+    }
+
+    /**
+     * The loaded class of an identifier.
+     */
+    private static final class Resolution {
+
+        private final Class<?> targetClass;
+        private final Class<?> pageImplClass;
+        private final ClassNotFoundException failure;
+
+        private Resolution(Class<?> targetClass, Class<?> pageImplClass, ClassNotFoundException failure) {
+            this.targetClass = targetClass;
+            this.pageImplClass = pageImplClass;
+            this.failure = failure;
+        }
+    }
+}